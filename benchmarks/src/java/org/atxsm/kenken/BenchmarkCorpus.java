@@ -0,0 +1,154 @@
+package org.atxsm.kenken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed, seeded set of generated puzzles so that benchmark numbers can be
+ * compared across commits. Each puzzle is cut from a shuffled cyclic
+ * Latin square; the puzzles are valid but not necessarily unique.
+ * <ul>
+ *     <li>EASY puzzles use cages of one to three cells, a third of them
+ *         single cells.</li>
+ *     <li>HARD puzzles use cages of two to four cells and no single
+ *         cells.</li>
+ * </ul>
+ */
+public final class BenchmarkCorpus {
+    static final int PUZZLES = 16;
+
+    public enum Difficulty {
+        EASY(1, 3), HARD(2, 4);
+
+        final int minCage;
+        final int maxCage;
+
+        Difficulty(int minCage, int maxCage) {
+            this.minCage = minCage;
+            this.maxCage = maxCage;
+        }
+    }
+
+    private static final int[][] NEIGHBOURS = {{0, 1}, {1, 0}, {0, -1}, {-1, 0}};
+
+    private BenchmarkCorpus() {
+    }
+
+    static List<Puzzle> puzzles(int size, Difficulty difficulty) {
+        final Random random = new Random(31L * size + difficulty.ordinal());
+        final List<Puzzle> puzzles = new ArrayList<Puzzle>(PUZZLES);
+        for (int i = 0; i < PUZZLES; i++) {
+            puzzles.add(generate(size, difficulty, random));
+        }
+        return puzzles;
+    }
+
+    static Puzzle generate(int size, Difficulty difficulty, Random random) {
+        final int[] values = latinSquare(size, random);
+        final int[] owner = new int[size * size];
+        java.util.Arrays.fill(owner, -1);
+        final Puzzle.Builder builder = new Puzzle.Builder(size);
+        int cages = 0;
+        for (int start = 0; start < owner.length; start++) {
+            if (owner[start] >= 0) {
+                continue;
+            }
+            final int wanted = difficulty.minCage
+                    + random.nextInt(difficulty.maxCage - difficulty.minCage + 1);
+            final List<Integer> cells = new ArrayList<Integer>();
+            cells.add(start);
+            owner[start] = cages;
+            while (cells.size() < wanted) {
+                final List<Integer> free = new ArrayList<Integer>();
+                for (int cell : cells) {
+                    for (int[] neighbour : NEIGHBOURS) {
+                        final int row = cell / size + neighbour[0];
+                        final int col = cell % size + neighbour[1];
+                        if (row >= 0 && row < size && col >= 0 && col < size && owner[row * size + col] < 0) {
+                            free.add(row * size + col);
+                        }
+                    }
+                }
+                if (free.isEmpty()) {
+                    break;
+                }
+                final int next = free.get(random.nextInt(free.size()));
+                owner[next] = cages;
+                cells.add(next);
+            }
+            addCage(builder, size, values, cells, random);
+            cages++;
+        }
+        return builder.build();
+    }
+
+    private static void addCage(Puzzle.Builder builder, int size, int[] values, List<Integer> cells, Random random) {
+        final int[] rowsCols = new int[cells.size() * 2];
+        long sum = 0;
+        long product = 1;
+        for (int i = 0; i < cells.size(); i++) {
+            final int cell = cells.get(i);
+            rowsCols[2 * i] = cell / size;
+            rowsCols[2 * i + 1] = cell % size;
+            sum += values[cell];
+            product *= values[cell];
+        }
+        if (cells.size() == 2) {
+            final int a = values[cells.get(0)];
+            final int b = values[cells.get(1)];
+            final int high = Math.max(a, b);
+            final int low = Math.min(a, b);
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.addCage(high - low, Operator.DIFFERENCE, rowsCols);
+                    return;
+                case 1:
+                    if (high % low == 0) {
+                        builder.addCage(high / low, Operator.RATIO, rowsCols);
+                        return;
+                    }
+                    break;
+                case 2:
+                    builder.addCage((int) product, Operator.PRODUCT, rowsCols);
+                    return;
+                default:
+                    break;
+            }
+        } else if (cells.size() > 2 && product <= Integer.MAX_VALUE && random.nextBoolean()) {
+            builder.addCage((int) product, Operator.PRODUCT, rowsCols);
+            return;
+        }
+        builder.addCage((int) sum, Operator.SUM, rowsCols);
+    }
+
+    /**
+     * @return cyclic Latin square with shuffled rows, columns and values
+     */
+    private static int[] latinSquare(int size, Random random) {
+        final int[] rows = shuffled(size, random);
+        final int[] cols = shuffled(size, random);
+        final int[] symbols = shuffled(size, random);
+        final int[] values = new int[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                values[row * size + col] = symbols[(rows[row] + cols[col]) % size] + 1;
+            }
+        }
+        return values;
+    }
+
+    private static int[] shuffled(int size, Random random) {
+        final int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            permutation[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int swap = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = swap;
+        }
+        return permutation;
+    }
+}
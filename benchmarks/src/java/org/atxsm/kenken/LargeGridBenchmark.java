@@ -0,0 +1,42 @@
+package org.atxsm.kenken;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagation alone on grids past the sizes of {@link SolverBenchmark},
+ * where full searches of corpus candidates take too long to repeat.
+ * Each invocation builds a solver for the next puzzle of the corpus and
+ * propagates to a fixpoint, so cage tables are built once per trial and
+ * then shared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LargeGridBenchmark {
+    @Param({"16", "25", "36"})
+    public int size;
+
+    @Param({"EASY", "HARD"})
+    public BenchmarkCorpus.Difficulty difficulty;
+
+    private List<Puzzle> puzzles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        puzzles = BenchmarkCorpus.puzzles(size, difficulty);
+    }
+
+    @Benchmark
+    public boolean propagate() {
+        final Puzzle puzzle = puzzles.get(next);
+        next = (next + 1) % puzzles.size();
+        return new Solver(puzzle).propagate();
+    }
+}
@@ -0,0 +1,46 @@
+package org.atxsm.kenken;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and validating puzzles from the cages of the benchmark corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PuzzleBuilderBenchmark {
+    @Param({"4", "6", "9", "12", "16"})
+    public int size;
+
+    @Param({"EASY", "HARD"})
+    public BenchmarkCorpus.Difficulty difficulty;
+
+    private List<Puzzle.Cage[]> cages;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cages = new ArrayList<Puzzle.Cage[]>();
+        for (Puzzle puzzle : BenchmarkCorpus.puzzles(size, difficulty)) {
+            cages.add(puzzle.getCages().toArray(new Puzzle.Cage[puzzle.getCages().size()]));
+        }
+    }
+
+    @Benchmark
+    public Puzzle build() {
+        final Puzzle.Cage[] puzzleCages = cages.get(next);
+        next = (next + 1) % cages.size();
+        final Puzzle.Builder builder = new Puzzle.Builder(size);
+        for (Puzzle.Cage cage : puzzleCages) {
+            builder.addCage(cage.target, cage.operator, cage.rowsCols);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,41 @@
+package org.atxsm.kenken;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating puzzles with a unique solution, including the rejected
+ * candidates and their uniqueness checks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PuzzleGeneratorBenchmark {
+    @Param({"4", "6", "9"})
+    public int size;
+
+    @Param({"EASY", "HARD"})
+    public BenchmarkCorpus.Difficulty difficulty;
+
+    private PuzzleGenerator generator;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // cages of the corpus sizes, each size as likely
+        generator = difficulty == BenchmarkCorpus.Difficulty.EASY
+                ? new PuzzleGenerator(size, 1, 1, 1)
+                : new PuzzleGenerator(size, 0, 1, 1, 1);
+        random = new Random(size);
+    }
+
+    @Benchmark
+    public Puzzle generate() {
+        return generator.generate(random);
+    }
+}
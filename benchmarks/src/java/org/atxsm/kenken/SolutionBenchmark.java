@@ -0,0 +1,66 @@
+package org.atxsm.kenken;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solution updates: each invocation starts from an empty grid of the given
+ * size, so the numbers include allocating it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolutionBenchmark {
+    @Param({"4", "6", "9", "12", "16"})
+    public int size;
+
+    private Solution solved;
+    private int[] eliminations; // row, col, value triples
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Puzzle puzzle = BenchmarkCorpus.puzzles(size, BenchmarkCorpus.Difficulty.EASY).get(0);
+        final Solver solver = new Solver(puzzle);
+        solver.solve();
+        solved = solver.getSolution();
+
+        final Random random = new Random(size);
+        eliminations = new int[size * size * 3];
+        for (int i = 0; i < eliminations.length; i += 3) {
+            eliminations[i] = random.nextInt(size);
+            eliminations[i + 1] = random.nextInt(size);
+            eliminations[i + 2] = random.nextInt(size) + 1;
+        }
+    }
+
+    /**
+     * Sets every value of a solved grid, one row at a time
+     */
+    @Benchmark
+    public Solution set() {
+        final Solution solution = new Solution(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                solution.set(row, col, solved.valueOrZero(row, col));
+            }
+        }
+        return solution;
+    }
+
+    /**
+     * Rules out size * size random candidates
+     */
+    @Benchmark
+    public Solution markImpossible() {
+        final Solution solution = new Solution(size);
+        for (int i = 0; i < eliminations.length; i += 3) {
+            solution.markImpossible(eliminations[i], eliminations[i + 1], eliminations[i + 2]);
+        }
+        return solution;
+    }
+}
@@ -0,0 +1,75 @@
+package org.atxsm.kenken;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solver hot paths over the benchmark corpus.
+ * Each invocation works on the next puzzle of the corpus in turn.
+ * The single rule benchmarks build their solvers in an invocation level
+ * setup, so compare them with each other rather than with solve.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolverBenchmark {
+    @Param({"4", "6", "9", "12", "16"})
+    public int size;
+
+    @Param({"EASY", "HARD"})
+    public BenchmarkCorpus.Difficulty difficulty;
+
+    private List<Puzzle> puzzles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        puzzles = BenchmarkCorpus.puzzles(size, difficulty);
+    }
+
+    Puzzle nextPuzzle() {
+        final Puzzle puzzle = puzzles.get(next);
+        next = (next + 1) % puzzles.size();
+        return puzzle;
+    }
+
+    /**
+     * Fresh solvers for the single rule benchmarks, built outside the measurement
+     */
+    @State(Scope.Thread)
+    public static class Rules {
+        Solver fresh;
+        Solver identified;
+
+        @Setup(Level.Invocation)
+        public void setUp(SolverBenchmark corpus) {
+            final Puzzle puzzle = corpus.nextPuzzle();
+            fresh = new Solver(puzzle);
+            identified = new Solver(puzzle);
+            identified.evaluateIdentity();
+        }
+    }
+
+    @Benchmark
+    public boolean solve() {
+        return new Solver(nextPuzzle()).solve();
+    }
+
+    @Benchmark
+    public boolean limitPairs(Rules rules) {
+        return rules.fresh.limitPairs();
+    }
+
+    /**
+     * Shrinks the cages around the values set by single-cell cages
+     */
+    @Benchmark
+    public boolean shrinkCages(Rules rules) {
+        return rules.identified.shrinkCages();
+    }
+}
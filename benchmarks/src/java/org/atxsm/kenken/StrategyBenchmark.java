@@ -0,0 +1,43 @@
+package org.atxsm.kenken;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving the benchmark corpus with each {@link SolverStrategy.Backend}.
+ * Each invocation solves the next puzzle of the corpus in turn.
+ * Sizes stop at 9: dancing links needs seconds per HARD puzzle from 12 up.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StrategyBenchmark {
+    @Param({"4", "6", "9"})
+    public int size;
+
+    @Param({"EASY", "HARD"})
+    public BenchmarkCorpus.Difficulty difficulty;
+
+    @Param({"PROPAGATION", "DANCING_LINKS", "CDCL"})
+    public SolverStrategy.Backend backend;
+
+    private List<Puzzle> puzzles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        puzzles = BenchmarkCorpus.puzzles(size, difficulty);
+    }
+
+    @Benchmark
+    public boolean solve() {
+        final Puzzle puzzle = puzzles.get(next);
+        next = (next + 1) % puzzles.size();
+        return backend.create(puzzle).solve();
+    }
+}
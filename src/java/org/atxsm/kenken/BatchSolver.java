@@ -0,0 +1,132 @@
+package org.atxsm.kenken;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Solves many puzzles concurrently, one isolated {@link Solver} per puzzle.
+ * <p>
+ * Any {@link ExecutorService} will do: a {@link ForkJoinPool} sized to the
+ * machine for CPU bound batches, or a virtual thread per task executor.
+ * The executor belongs to the caller and is not shut down here.
+ * <p>
+ * Each puzzle gets the same time limit, counted from when its task starts
+ * running, after which it is reported as
+ * {@link SolveResult.Status#BUDGET_EXCEEDED} like {@link Solver#solve(SolveBudget)}.
+ */
+public class BatchSolver {
+    private final ExecutorService executor;
+    private final long timeoutNanos;
+
+    /**
+     * @param executor runs one task per puzzle
+     * @param timeout time limit for each puzzle
+     */
+    public BatchSolver(ExecutorService executor, long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        this.executor = executor;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return results in the same order as puzzles
+     */
+    public List<SolveResult> solveInOrder(Iterable<Puzzle> puzzles) {
+        final List<Future<SolveResult>> futures = new ArrayList<Future<SolveResult>>();
+        int index = 0;
+        for (Puzzle puzzle : puzzles) {
+            futures.add(executor.submit(task(index++, puzzle)));
+        }
+        final List<SolveResult> results = new ArrayList<SolveResult>(futures.size());
+        for (Future<SolveResult> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    public List<SolveResult> solveInOrder(Stream<Puzzle> puzzles) {
+        return solveInOrder(iterable(puzzles));
+    }
+
+    /**
+     * Submits every puzzle, then hands back each result as soon as it is ready
+     * @return results in completion order; see {@link SolveResult#getIndex()}
+     */
+    public Iterator<SolveResult> solveAsCompleted(Iterable<Puzzle> puzzles) {
+        final CompletionService<SolveResult> completions = new ExecutorCompletionService<SolveResult>(executor);
+        int index = 0;
+        for (Puzzle puzzle : puzzles) {
+            completions.submit(task(index++, puzzle));
+        }
+        final int submitted = index;
+        return new Iterator<SolveResult>() {
+            private int taken;
+
+            @Override
+            public boolean hasNext() {
+                return taken < submitted;
+            }
+
+            @Override
+            public SolveResult next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                taken++;
+                try {
+                    return await(completions.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted waiting for results", e);
+                }
+            }
+        };
+    }
+
+    public Iterator<SolveResult> solveAsCompleted(Stream<Puzzle> puzzles) {
+        return solveAsCompleted(iterable(puzzles));
+    }
+
+    private Callable<SolveResult> task(final int index, final Puzzle puzzle) {
+        return new Callable<SolveResult>() {
+            @Override
+            public SolveResult call() {
+                return solve(index, puzzle, timeoutNanos);
+            }
+        };
+    }
+
+    static SolveResult solve(int index, Puzzle puzzle, long timeoutNanos) {
+        final long start = System.nanoTime();
+        final SolveResult result = new Solver(puzzle).solve(
+                new SolveBudget.Builder().timeout(timeoutNanos, TimeUnit.NANOSECONDS).build());
+        return new SolveResult(index, result.getStatus(), result.getSolution(), System.nanoTime() - start,
+                result.getStats());
+    }
+
+    private static SolveResult await(Future<SolveResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for results", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("solver failed", e.getCause());
+        }
+    }
+
+    private static Iterable<Puzzle> iterable(final Stream<Puzzle> puzzles) {
+        return new Iterable<Puzzle>() {
+            @Override
+            public Iterator<Puzzle> iterator() {
+                return puzzles.iterator();
+            }
+        };
+    }
+}
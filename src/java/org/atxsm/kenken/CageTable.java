@@ -0,0 +1,432 @@
+package org.atxsm.kenken;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Every assignment of values to the cells of a SUM or PRODUCT cage that
+ * reaches the target without repeating a value in a row or column.
+ * <p>
+ * Tables depend only on the operator, target, puzzle size and the shape of
+ * the cage, so they are shared between cages and puzzles with the same key.
+ * The least recently used tables are dropped from the shared cache once
+ * the tables in it would take more than {@link #MAX_CACHED_BYTES}; solvers
+ * keep the tables they use.
+ * Cages with more than {@link #MAX_TUPLES} assignments, or whose
+ * enumeration takes more than {@link #MAX_STEPS} steps, get no table.
+ * <p>
+ * Tables grow as N^(cells-1), so on large grids a pruning pass that scans
+ * every assignment costs far more than the cage. Callers that prune the
+ * same cage repeatedly pass in residues: the last assignment found for
+ * each cell and value, checked first, and when no longer allowed the
+ * point from which to look for the next one.
+ */
+final class CageTable {
+    static final int MAX_TUPLES = 1 << 18;
+    /** most partial assignments tried while building one table */
+    static final int MAX_STEPS = 1 << 22;
+
+    /** most bytes of tuples and indexes kept in the shared cache */
+    static final long MAX_CACHED_BYTES = 64L << 20;
+    // rough cost of a cache entry apart from its tuples and index
+    private static final int ENTRY_BYTES = 128;
+
+    // least recently used first; guarded by itself, as is cachedBytes
+    private static final LinkedHashMap<Key, CageTable> TABLES = new LinkedHashMap<Key, CageTable>(16, 0.75f, true);
+    private static long cachedBytes;
+    private static final CageTable TOO_LARGE = new CageTable(0, 0, new byte[0], 0);
+
+    private final int size;
+    private final int cells;
+    private final byte[] tuples; // values of tuple t at [t * cells, (t + 1) * cells)
+    private final int count;
+    // tuples with value v at cell i are byValue[i * count + k] for k from
+    // starts[i * (size + 2) + v] up to the start of v + 1; built on first use
+    private volatile Index index;
+
+    private CageTable(int size, int cells, byte[] tuples, int count) {
+        this.size = size;
+        this.cells = cells;
+        this.tuples = tuples;
+        this.count = count;
+    }
+
+    /**
+     * @return table for cage, or null if cage is not a SUM or PRODUCT cage
+     *         of three or more cells or has too many assignments
+     */
+    static CageTable forCage(Puzzle.Cage cage, int size) {
+        return forCage(cage, size, false, 0);
+    }
+
+    /**
+     * Looks up the table for cage like {@link #forCage(Puzzle.Cage, int)},
+     * giving up on building it once System.nanoTime() passes deadline.
+     * A table given up on is not cached, so a later call may build it.
+     * @return table for cage, or null if it has none or the deadline passed
+     */
+    static CageTable forCage(Puzzle.Cage cage, int size, long deadline) {
+        return forCage(cage, size, true, deadline);
+    }
+
+    private static CageTable forCage(Puzzle.Cage cage, int size, boolean hasDeadline, long deadline) {
+        if ((cage.operator != Operator.SUM && cage.operator != Operator.PRODUCT)
+                || cage.rowsCols.length < 6) {
+            return null;
+        }
+        final Key key = new Key(cage, size);
+        CageTable table;
+        synchronized (TABLES) {
+            table = TABLES.get(key);
+        }
+        if (table == null) {
+            table = build(cage, size, hasDeadline, deadline); // outside the lock, like SolutionCache
+            if (table == null) {
+                return null; // out of time
+            }
+            synchronized (TABLES) {
+                final CageTable existing = TABLES.get(key);
+                if (existing != null) {
+                    table = existing;
+                } else {
+                    TABLES.put(key, table);
+                    cachedBytes += table.bytes();
+                    trimCache(MAX_CACHED_BYTES);
+                }
+            }
+        }
+        return table == TOO_LARGE ? null : table;
+    }
+
+    /**
+     * Drops the least recently used tables from the shared cache until the
+     * rest take at most maxBytes
+     */
+    static void trimCache(long maxBytes) {
+        synchronized (TABLES) {
+            final Iterator<Map.Entry<Key, CageTable>> eldest = TABLES.entrySet().iterator();
+            while (cachedBytes > maxBytes && eldest.hasNext()) {
+                cachedBytes -= eldest.next().getValue().bytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return bytes taken by the tables in the shared cache
+     */
+    static long cachedBytes() {
+        synchronized (TABLES) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * @return bytes of the tuples and, once built, the index, plus the entry
+     */
+    private long bytes() {
+        // a tuple value takes a byte, and an int in the index
+        return ENTRY_BYTES + 5L * cells * count;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return value of cell i of the cage in assignment t
+     */
+    int getValue(int t, int i) {
+        return tuples[t * cells + i];
+    }
+
+    /**
+     * Removes the candidates of each cell in cage that appear in no
+     * assignment still allowed by the candidates of the other cells
+     * @return true if candidates were removed; false otherwise
+     */
+    boolean prune(Solution solution, Puzzle.Cage cage) {
+        final long[] supported = support(solution, cage);
+        boolean modified = false;
+        for (int i = 0; i < cells && !solution.hasContradiction(); i++) {
+            modified |= solution.restrict(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1], supported[i]);
+        }
+        return modified;
+    }
+
+    /**
+     * Same as {@link #prune(Solution, Puzzle.Cage)}, starting from the
+     * residues left by earlier calls for this cage
+     * @param residues {@link #newResidues()}, kept between calls for one cage
+     */
+    boolean prune(Solution solution, Puzzle.Cage cage, int[] residues) {
+        if (index == null) {
+            index = new Index();
+        }
+        final Index index = this.index;
+        final long[] masks = new long[cells];
+        for (int i = 0; i < cells; i++) {
+            masks[i] = solution.candidateMask(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1]);
+        }
+        final long[] supported = new long[cells];
+        for (int i = 0; i < cells; i++) {
+            for (long mask = masks[i] & ~supported[i]; mask != 0; mask &= mask - 1) {
+                final int value = Solution.lowestValue(mask);
+                int t = residues[i * (size + 1) + value];
+                if (t < 0 || !allowed(t, masks)) {
+                    t = find(index, i, value, masks);
+                }
+                if (t >= 0) {
+                    // the assignment supports the values of the other cells too
+                    for (int j = 0; j < cells; j++) {
+                        residues[j * (size + 1) + tuples[t * cells + j]] = t;
+                        supported[j] |= Solution.bit(tuples[t * cells + j]);
+                    }
+                }
+            }
+        }
+        boolean modified = false;
+        for (int i = 0; i < cells && !solution.hasContradiction(); i++) {
+            modified |= solution.restrict(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1], supported[i]);
+        }
+        return modified;
+    }
+
+    /**
+     * @return empty residues for {@link #prune(Solution, Puzzle.Cage, int[])}
+     */
+    int[] newResidues() {
+        final int[] residues = new int[cells * (size + 1)];
+        Arrays.fill(residues, -1);
+        return residues;
+    }
+
+    /**
+     * @return an allowed assignment with value at cell i, or -1 if none
+     */
+    private int find(Index index, int i, int value, long[] masks) {
+        final int end = index.starts[i * (size + 2) + value + 1];
+        for (int k = index.starts[i * (size + 2) + value]; k < end; k++) {
+            final int t = index.byValue[i * count + k];
+            if (allowed(t, masks)) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private boolean allowed(int t, long[] masks) {
+        for (int i = 0, offset = t * cells; i < cells; i++, offset++) {
+            if ((masks[i] & Solution.bit(tuples[offset])) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return for each cell of cage, the candidates that appear in some
+     *         assignment allowed by the candidates of the other cells
+     */
+    long[] support(Solution solution, Puzzle.Cage cage) {
+        final long[] masks = new long[cells];
+        for (int i = 0; i < cells; i++) {
+            masks[i] = solution.candidateMask(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1]);
+        }
+        final long[] supported = new long[cells];
+        for (int t = 0, offset = 0; t < count; t++, offset += cells) {
+            int i = 0;
+            while (i < cells && (masks[i] & Solution.bit(tuples[offset + i])) != 0) {
+                i++;
+            }
+            if (i == cells) {
+                for (i = 0; i < cells; i++) {
+                    supported[i] |= Solution.bit(tuples[offset + i]);
+                }
+            }
+        }
+        return supported;
+    }
+
+    /**
+     * @return the table, TOO_LARGE, or null if the deadline passed first
+     */
+    private static CageTable build(Puzzle.Cage cage, int size, boolean hasDeadline, long deadline) {
+        final Builder builder = new Builder(cage, size, hasDeadline, deadline);
+        if (!builder.fill(0, cage.operator == Operator.SUM ? 0 : 1)) {
+            return builder.timedOut ? null : TOO_LARGE;
+        }
+        return new CageTable(size, builder.cells, Arrays.copyOf(builder.tuples, builder.count * builder.cells),
+                builder.count);
+    }
+
+    /**
+     * Depth-first enumeration of assignments, in cage cell order
+     */
+    private static class Builder {
+        private final Puzzle.Cage cage;
+        private final int size;
+        private final int cells;
+        private final boolean hasDeadline;
+        private final long deadline;
+        private final int[] current;
+        private byte[] tuples;
+        private int count;
+        private int steps;
+        private boolean timedOut;
+
+        Builder(Puzzle.Cage cage, int size, boolean hasDeadline, long deadline) {
+            this.cage = cage;
+            this.size = size;
+            this.hasDeadline = hasDeadline;
+            this.deadline = deadline;
+            this.cells = cage.rowsCols.length / 2;
+            this.current = new int[cells];
+            this.tuples = new byte[cells * 16];
+        }
+
+        /**
+         * @return false if the table grew past MAX_TUPLES, took more than
+         *         MAX_STEPS or ran past the deadline
+         */
+        boolean fill(int cell, long aggregate) {
+            if (++steps > MAX_STEPS) {
+                return false;
+            }
+            if (hasDeadline && (steps & 0x3ff) == 0 && System.nanoTime() - deadline >= 0) {
+                timedOut = true;
+                return false;
+            }
+            if (cell == cells) {
+                if (aggregate != cage.target) {
+                    return true;
+                }
+                if (count == MAX_TUPLES) {
+                    return false;
+                }
+                if ((count + 1) * cells > tuples.length) {
+                    tuples = Arrays.copyOf(tuples, tuples.length * 2);
+                }
+                for (int i = 0; i < cells; i++) {
+                    tuples[count * cells + i] = (byte) current[i];
+                }
+                count++;
+                return true;
+            }
+            final int remaining = cells - cell - 1;
+            for (int value = 1; value <= size; value++) {
+                if (conflicts(cell, value)) {
+                    continue;
+                }
+                final long next;
+                if (cage.operator == Operator.SUM) {
+                    next = aggregate + value;
+                    if (next + remaining > cage.target) {
+                        break; // larger values only overshoot
+                    }
+                    if (next + (long) remaining * size < cage.target) {
+                        continue;
+                    }
+                } else {
+                    // aggregate divides the target, so this cannot overflow
+                    if ((cage.target / aggregate) % value != 0) {
+                        continue;
+                    }
+                    next = aggregate * value;
+                }
+                current[cell] = value;
+                if (!fill(cell + 1, next)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean conflicts(int cell, int value) {
+            final int row = cage.rowsCols[2 * cell];
+            final int col = cage.rowsCols[2 * cell + 1];
+            for (int i = 0; i < cell; i++) {
+                if (current[i] == value
+                        && (cage.rowsCols[2 * i] == row || cage.rowsCols[2 * i + 1] == col)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Assignments grouped by the value of each cell, by counting sort
+     */
+    private final class Index {
+        final int[] byValue = new int[cells * count];
+        final int[] starts = new int[cells * (size + 2)];
+
+        Index() {
+            for (int i = 0; i < cells; i++) {
+                final int base = i * (size + 2);
+                for (int t = 0; t < count; t++) {
+                    starts[base + tuples[t * cells + i] + 1]++;
+                }
+                for (int v = 1; v <= size + 1; v++) {
+                    starts[base + v] += starts[base + v - 1];
+                }
+                final int[] next = Arrays.copyOfRange(starts, base, base + size + 1);
+                for (int t = 0; t < count; t++) {
+                    byValue[i * count + next[tuples[t * cells + i]]++] = t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Operator, target, size and cell offsets relative to the cage's top-left corner
+     */
+    private static final class Key {
+        private final Operator operator;
+        private final long target;
+        private final int size;
+        private final int[] shape;
+
+        Key(Puzzle.Cage cage, int size) {
+            this.operator = cage.operator;
+            this.target = cage.target;
+            this.size = size;
+            int minRow = Integer.MAX_VALUE;
+            int minCol = Integer.MAX_VALUE;
+            for (int i = 0; i < cage.rowsCols.length; i += 2) {
+                minRow = Math.min(minRow, cage.rowsCols[i]);
+                minCol = Math.min(minCol, cage.rowsCols[i + 1]);
+            }
+            this.shape = new int[cage.rowsCols.length];
+            for (int i = 0; i < shape.length; i += 2) {
+                shape[i] = cage.rowsCols[i] - minRow;
+                shape[i + 1] = cage.rowsCols[i + 1] - minCol;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return target == key.target
+                    && size == key.size
+                    && operator == key.operator
+                    && Arrays.equals(shape, key.shape);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = operator.hashCode();
+            result = 31 * result + (int) (target ^ (target >>> 32));
+            result = 31 * result + size;
+            result = 31 * result + Arrays.hashCode(shape);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.atxsm.kenken;
+
+/**
+ * Solves a puzzle by handing its {@link CnfEncoder} formula to an
+ * in-process {@link SatSolver}.
+ * <p>
+ * None of the puzzle's structure reaches the search: rows, columns and
+ * cages are all clauses, and what the search learns from one conflict is
+ * a clause over whichever cells took part in it. That suits puzzles whose
+ * cages interlock over many cells, where the propagation solver
+ * backtracks over the same combinations again and again, and costs more
+ * on puzzles its rules solve with little search.
+ * <p>
+ * A CdclSolver is not thread safe.
+ */
+public class CdclSolver implements SolverStrategy {
+    private final int size;
+    private final CnfEncoder encoder;
+    private Solution solution;
+    private long conflicts;
+
+    public CdclSolver(Puzzle puzzle) {
+        this.size = puzzle.getSize();
+        this.encoder = new CnfEncoder(puzzle);
+        this.solution = new Solution(size);
+    }
+
+    @Override
+    public Solution getSolution() {
+        return solution;
+    }
+
+    /**
+     * @return conflicts the last solve learned from
+     */
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    @Override
+    public boolean solve() {
+        final SatSolver sat = new SatSolver(encoder.getVariableCount());
+        boolean satisfiable = true;
+        for (int[] clause : encoder.getClauses()) {
+            satisfiable &= sat.addClause(clause);
+        }
+        satisfiable = satisfiable && sat.solve();
+        conflicts = sat.getConflicts();
+        if (!satisfiable) {
+            solution = new Solution(size);
+            return false;
+        }
+        final int[] values = new int[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                for (int value = 1; value <= size; value++) {
+                    if (sat.value(encoder.variable(row, col, value))) {
+                        values[row * size + col] = value;
+                    }
+                }
+            }
+        }
+        solution = new Solution(size, values);
+        return true;
+    }
+}
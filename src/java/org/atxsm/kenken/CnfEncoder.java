@@ -0,0 +1,297 @@
+package org.atxsm.kenken;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a puzzle as a formula in conjunctive normal form, for
+ * {@link SatSolver} or any SAT solver reading DIMACS.
+ * <p>
+ * Variable <code>(row * size + col) * size + value</code> is true when the
+ * cell holds the value; variables after <code>size<sup>3</sup></code> are
+ * auxiliary. Each cell holds exactly one value and each row and column
+ * holds each value exactly once: one clause for at least one, and pairwise
+ * clauses, or a sequential counter for more than {@link #PAIRWISE_LIMIT}
+ * literals, for at most one. Cages are encoded by the values that support
+ * each other:
+ * <ul>
+ *     <li>one cell: a unit clause for the target.</li>
+ *     <li>two cells: each value of either cell implies one of the values
+ *         of the other that reach the target with it, as in
+ *         {@link PairTable}.</li>
+ *     <li>SUM or PRODUCT with an assignment table: a variable per
+ *         assignment implies its values, one of them holds, and each
+ *         value of a cell implies one of the assignments with it.</li>
+ *     <li>SUM or PRODUCT too large for a table: a chain of partial sums or
+ *         products, with a variable for each one the first cells can make
+ *         on the way to the target.</li>
+ * </ul>
+ */
+public class CnfEncoder {
+    /** most literals given pairwise at-most-one clauses */
+    static final int PAIRWISE_LIMIT = 6;
+
+    private final int size;
+    private final List<int[]> clauses = new ArrayList<int[]>();
+    private int variables;
+
+    /**
+     * @throws IllegalArgumentException if a DIFFERENCE or RATIO cage does
+     *                                  not have two cells
+     */
+    public CnfEncoder(Puzzle puzzle) {
+        this.size = puzzle.getSize();
+        this.variables = size * size * size;
+        final int[] literals = new int[size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                for (int value = 1; value <= size; value++) {
+                    literals[value - 1] = variable(row, col, value);
+                }
+                exactlyOne(literals);
+            }
+        }
+        for (int line = 0; line < size; line++) {
+            for (int value = 1; value <= size; value++) {
+                for (int i = 0; i < size; i++) {
+                    literals[i] = variable(line, i, value);
+                }
+                exactlyOne(literals);
+                for (int i = 0; i < size; i++) {
+                    literals[i] = variable(i, line, value);
+                }
+                exactlyOne(literals);
+            }
+        }
+        for (Puzzle.Cage cage : puzzle.getCages()) {
+            encode(cage);
+        }
+    }
+
+    /**
+     * Usage: <code>CnfEncoder puzzles [index]</code>. Writes the formula of
+     * puzzle index, from 0, of a {@link PuzzleWriter} file to stdout.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            throw new IllegalArgumentException("usage: CnfEncoder puzzles [index]");
+        }
+        final int index = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        final PuzzleReader in = PuzzleReader.map(Paths.get(args[0]));
+        try {
+            Puzzle puzzle = in.read();
+            for (int i = 0; i < index && puzzle != null; i++) {
+                puzzle = in.read();
+            }
+            if (puzzle == null) {
+                throw new IllegalArgumentException(args[0] + " has no puzzle " + index);
+            }
+            final Writer out = new OutputStreamWriter(System.out, StandardCharsets.US_ASCII);
+            new CnfEncoder(puzzle).writeDimacs(out);
+            out.flush();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the variable true when row, col holds value
+     */
+    public int variable(int row, int col, int value) {
+        return (row * size + col) * size + value;
+    }
+
+    public int getVariableCount() {
+        return variables;
+    }
+
+    public int getClauseCount() {
+        return clauses.size();
+    }
+
+    /**
+     * @return each clause as DIMACS literals: variable if true, minus
+     *         variable if false
+     */
+    List<int[]> getClauses() {
+        return Collections.unmodifiableList(clauses);
+    }
+
+    /**
+     * Writes the formula in DIMACS CNF; out is not flushed or closed
+     */
+    public void writeDimacs(Writer out) throws IOException {
+        out.write("c kenken " + size + "x" + size
+                + ", variable (row * " + size + " + col) * " + size + " + value\n");
+        out.write("p cnf " + variables + " " + clauses.size() + "\n");
+        for (int[] clause : clauses) {
+            for (int literal : clause) {
+                out.write(Integer.toString(literal));
+                out.write(' ');
+            }
+            out.write("0\n");
+        }
+    }
+
+    private void encode(Puzzle.Cage cage) {
+        final int cells = cage.rowsCols.length / 2;
+        if (cells == 1) {
+            clause(variable(cage.rowsCols[0], cage.rowsCols[1], (int) cage.target));
+        } else if (cells == 2) {
+            encodePair(cage);
+        } else if (cage.operator != Operator.SUM && cage.operator != Operator.PRODUCT) {
+            throw new IllegalArgumentException(cage + " must have two cells");
+        } else {
+            final CageTable table = CageTable.forCage(cage, size);
+            if (table != null) {
+                encodeTable(cage, table);
+            } else {
+                encodeChain(cage);
+            }
+        }
+    }
+
+    private void encodePair(Puzzle.Cage cage) {
+        final int[] rowsCols = cage.rowsCols;
+        final boolean sameLine = rowsCols[0] == rowsCols[2] || rowsCols[1] == rowsCols[3];
+        final PairTable table = PairTable.forCage(cage, size);
+        for (int cell = 0; cell < 2; cell++) {
+            final int row = rowsCols[2 * cell];
+            final int col = rowsCols[2 * cell + 1];
+            final int otherRow = rowsCols[2 - 2 * cell];
+            final int otherCol = rowsCols[3 - 2 * cell];
+            for (int value = 1; value <= size; value++) {
+                final long partners = table.supported(Solution.bit(value), sameLine);
+                final int[] clause = new int[1 + Long.bitCount(partners)];
+                clause[0] = -variable(row, col, value);
+                int k = 1;
+                for (long mask = partners; mask != 0; mask &= mask - 1) {
+                    clause[k++] = variable(otherRow, otherCol, Solution.lowestValue(mask));
+                }
+                clauses.add(clause);
+            }
+        }
+    }
+
+    private void encodeTable(Puzzle.Cage cage, CageTable table) {
+        final int cells = cage.rowsCols.length / 2;
+        final int count = table.getCount();
+        final int first = variables + 1;
+        variables += count;
+        final int[] any = new int[count];
+        // assignments holding each value of each cell, at [i * size + value - 1]
+        final List<List<Integer>> holding = new ArrayList<List<Integer>>(cells * size);
+        for (int k = 0; k < cells * size; k++) {
+            holding.add(new ArrayList<Integer>());
+        }
+        for (int t = 0; t < count; t++) {
+            any[t] = first + t;
+            for (int i = 0; i < cells; i++) {
+                final int value = table.getValue(t, i);
+                clause(-(first + t), variable(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1], value));
+                holding.get(i * size + value - 1).add(first + t);
+            }
+        }
+        clauses.add(any);
+        for (int i = 0; i < cells; i++) {
+            for (int value = 1; value <= size; value++) {
+                final List<Integer> assignments = holding.get(i * size + value - 1);
+                final int[] clause = new int[1 + assignments.size()];
+                clause[0] = -variable(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1], value);
+                for (int k = 0; k < assignments.size(); k++) {
+                    clause[k + 1] = assignments.get(k);
+                }
+                clauses.add(clause);
+            }
+        }
+    }
+
+    /**
+     * Partial aggregates of the first i cells, one variable each; a partial
+     * aggregate and a value of the next cell imply the next one, or are
+     * ruled out together if it can no longer reach the target
+     */
+    private void encodeChain(Puzzle.Cage cage) {
+        final int cells = cage.rowsCols.length / 2;
+        final boolean sum = cage.operator == Operator.SUM;
+        // partial aggregates so far and their variables; 0 for the empty
+        // product or sum, which always holds
+        Map<Long, Integer> partials = new HashMap<Long, Integer>();
+        partials.put(sum ? 0L : 1L, 0);
+        for (int i = 0; i < cells; i++) {
+            final int remaining = cells - i - 1;
+            final Map<Long, Integer> next = new HashMap<Long, Integer>();
+            for (Map.Entry<Long, Integer> partial : partials.entrySet()) {
+                final long aggregate = partial.getKey();
+                final int holds = partial.getValue();
+                for (int value = 1; value <= size; value++) {
+                    final int cell = variable(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1], value);
+                    final long reached;
+                    final boolean possible;
+                    if (sum) {
+                        reached = aggregate + value;
+                        possible = reached + remaining <= cage.target
+                                && reached + (long) remaining * size >= cage.target;
+                    } else {
+                        // aggregate divides the target, so this cannot overflow
+                        possible = (cage.target / aggregate) % value == 0
+                                && (remaining > 0 || aggregate * value == cage.target);
+                        reached = possible ? aggregate * value : 0;
+                    }
+                    if (!possible) {
+                        clause(holds == 0 ? new int[]{-cell} : new int[]{-holds, -cell});
+                    } else if (remaining > 0) {
+                        Integer reachedHolds = next.get(reached);
+                        if (reachedHolds == null) {
+                            reachedHolds = ++variables;
+                            next.put(reached, reachedHolds);
+                        }
+                        clause(holds == 0 ? new int[]{-cell, reachedHolds}
+                                : new int[]{-holds, -cell, reachedHolds});
+                    }
+                }
+            }
+            partials = next;
+        }
+    }
+
+    /**
+     * At least one of literals and, pairwise or through a sequential
+     * counter, at most one
+     */
+    private void exactlyOne(int[] literals) {
+        final int n = literals.length;
+        clauses.add(literals.clone());
+        if (n <= PAIRWISE_LIMIT) {
+            for (int a = 0; a < n; a++) {
+                for (int b = a + 1; b < n; b++) {
+                    clause(-literals[a], -literals[b]);
+                }
+            }
+            return;
+        }
+        // counter k holds once one of the first k + 1 literals does
+        final int counters = variables;
+        variables += n - 1;
+        for (int k = 0; k < n - 1; k++) {
+            clause(-literals[k], counters + k + 1);
+            if (k > 0) {
+                clause(-(counters + k), counters + k + 1);
+                clause(-literals[k], -(counters + k));
+            }
+        }
+        clause(-literals[n - 1], -(counters + n - 1));
+    }
+
+    private void clause(int... literals) {
+        clauses.add(literals);
+    }
+}
@@ -0,0 +1,359 @@
+package org.atxsm.kenken;
+
+import java.util.Arrays;
+
+/**
+ * Solves a puzzle as an exact cover problem with Knuth's Algorithm X on
+ * dancing links.
+ * <p>
+ * Each option places one value in one cell and covers three constraints:
+ * the cell has a value, the row has the value, and the column has the
+ * value. The Latin square part is then handled entirely by the cover:
+ * choosing the constraint with the fewest options left finds naked and
+ * hidden singles without any rule for them. Options are only created for
+ * values each cage allows on its own. Cages are checked as a side
+ * condition whenever one of their cells is placed, and the options of the
+ * other cells of that cage that can no longer reach the target are hidden
+ * until the search backs up past the placement.
+ * <p>
+ * A DancingLinksSolver is not thread safe.
+ */
+public class DancingLinksSolver implements SolverStrategy {
+    private static final int ROOT = 0;
+
+    private final int size;
+    private final Puzzle.Cage[] cages;
+    private final int[] cellCages;
+    private Solution solution;
+
+    // node links; nodes 1..columns are column headers, then 3 nodes per option
+    private int[] left;
+    private int[] right;
+    private int[] up;
+    private int[] down;
+    private int[] column;
+    private int[] columnSizes;  // options left per column header
+    private int[] options;      // cell * size + value - 1 of the option of each node
+    private int[] hidden;       // a node of each option hidden by a cage, most recent last
+    private int hiddenSize;
+
+    // cage state of the values placed so far
+    private final long[] cageSums;
+    private final long[] cageProducts;
+    private final int[] cageFilled;
+    private final int[] values;
+
+    public DancingLinksSolver(Puzzle puzzle) {
+        this.size = puzzle.getSize();
+        this.cages = puzzle.getCages().toArray(new Puzzle.Cage[puzzle.getCageCount()]);
+        this.cellCages = new int[size * size];
+        for (int c = 0; c < cages.length; c++) {
+            for (int i = 0; i < cages[c].rowsCols.length; i += 2) {
+                cellCages[cages[c].rowsCols[i] * size + cages[c].rowsCols[i + 1]] = c;
+            }
+        }
+        this.solution = new Solution(size);
+        this.cageSums = new long[cages.length];
+        this.cageProducts = new long[cages.length];
+        this.cageFilled = new int[cages.length];
+        this.values = new int[size * size];
+    }
+
+    @Override
+    public Solution getSolution() {
+        return solution;
+    }
+
+    @Override
+    public boolean solve() {
+        build(allowedValues());
+        Arrays.fill(cageSums, 0);
+        Arrays.fill(cageProducts, 1);
+        Arrays.fill(cageFilled, 0);
+        Arrays.fill(values, 0);
+        if (search()) {
+            solution = new Solution(size, values);
+            return true;
+        }
+        solution = new Solution(size);
+        return false;
+    }
+
+    /**
+     * @return for each cell, the values its cage allows without looking at
+     *         the rest of the grid
+     */
+    private long[] allowedValues() {
+        final long[] allowed = new long[size * size];
+        Arrays.fill(allowed, Solution.fullMask(size));
+        final Solution empty = new Solution(size);
+        for (Puzzle.Cage cage : cages) {
+            final int cells = cage.rowsCols.length / 2;
+            final CageTable table = CageTable.forCage(cage, size);
+            final long[] supported = table == null ? null : table.support(empty, cage);
+            for (int i = 0; i < cells; i++) {
+                final int cell = cage.rowsCols[2 * i] * size + cage.rowsCols[2 * i + 1];
+                if (cells == 1) {
+                    allowed[cell] = cage.target >= 1 && cage.target <= size ? Solution.bit((int) cage.target) : 0;
+                } else if (cells == 2) {
+                    allowed[cell] = PairTable.forCage(cage, size).supported(Solution.fullMask(size), true);
+                } else if (supported != null) {
+                    allowed[cell] = supported[i];
+                } else if (cage.operator == Operator.PRODUCT) {
+                    for (int value = 1; value <= size; value++) {
+                        if (cage.target % value != 0) {
+                            allowed[cell] &= ~Solution.bit(value);
+                        }
+                    }
+                }
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Links a header for each constraint and three nodes for each allowed option
+     */
+    private void build(long[] allowed) {
+        final int columns = 3 * size * size;
+        int optionCount = 0;
+        for (long mask : allowed) {
+            optionCount += Long.bitCount(mask);
+        }
+        final int nodes = 1 + columns + 3 * optionCount;
+        left = new int[nodes];
+        right = new int[nodes];
+        up = new int[nodes];
+        down = new int[nodes];
+        column = new int[nodes];
+        columnSizes = new int[columns + 1];
+        options = new int[nodes];
+        hidden = new int[optionCount];
+        hiddenSize = 0;
+        for (int header = 0; header <= columns; header++) {
+            left[header] = header == 0 ? columns : header - 1;
+            right[header] = header == columns ? 0 : header + 1;
+            up[header] = header;
+            down[header] = header;
+            column[header] = header;
+        }
+        int node = columns + 1;
+        for (int cell = 0; cell < allowed.length; cell++) {
+            final int row = cell / size;
+            final int col = cell % size;
+            for (long mask = allowed[cell]; mask != 0; mask &= mask - 1) {
+                final int value = Solution.lowestValue(mask);
+                final int first = node;
+                node = append(node, first, 1 + cell, cell, value);
+                node = append(node, first, 1 + size * size + row * size + value - 1, cell, value);
+                node = append(node, first, 1 + 2 * size * size + col * size + value - 1, cell, value);
+            }
+        }
+    }
+
+    /**
+     * Adds node to the bottom of header's column and to the row starting at first
+     * @return the next free node
+     */
+    private int append(int node, int first, int header, int cell, int value) {
+        column[node] = header;
+        options[node] = cell * size + value - 1;
+        up[node] = up[header];
+        down[node] = header;
+        down[up[header]] = node;
+        up[header] = node;
+        columnSizes[header]++;
+        if (node == first) {
+            left[node] = node;
+            right[node] = node;
+        } else {
+            left[node] = left[first];
+            right[node] = first;
+            right[left[first]] = node;
+            left[first] = node;
+        }
+        return node + 1;
+    }
+
+    /**
+     * Algorithm X with an explicit stack of chosen option nodes
+     * @return true if every constraint was covered
+     */
+    private boolean search() {
+        final int[] chosen = new int[size * size];
+        final int[] hiddenMarks = new int[size * size];
+        int depth = 0;
+        int header = -1;
+        int node = -1;
+        while (true) {
+            if (header < 0) {
+                if (right[ROOT] == ROOT) {
+                    return true;
+                }
+                header = selectColumn();
+                cover(header);
+                node = down[header];
+            }
+            // try the remaining options of header, from node
+            while (node != header && !place(node)) {
+                node = down[node];
+            }
+            if (node != header) {
+                for (int j = right[node]; j != node; j = right[j]) {
+                    cover(column[j]);
+                }
+                hiddenMarks[depth] = hiddenSize;
+                chosen[depth++] = node;
+                hideUnreachable(cellCages[options[node] / size]);
+                header = -1;
+                continue;
+            }
+            // exhausted: back up to the previous choice and try its next option
+            uncover(header);
+            if (depth == 0) {
+                return false;
+            }
+            node = chosen[--depth];
+            while (hiddenSize > hiddenMarks[depth]) {
+                unhide(hidden[--hiddenSize]);
+            }
+            for (int j = left[node]; j != node; j = left[j]) {
+                uncover(column[j]);
+            }
+            unplace(node);
+            header = column[node];
+            node = down[node];
+        }
+    }
+
+    /**
+     * @return the constraint with the fewest options left
+     */
+    private int selectColumn() {
+        int best = right[ROOT];
+        for (int header = right[best]; header != ROOT && columnSizes[best] > 1; header = right[header]) {
+            if (columnSizes[header] < columnSizes[best]) {
+                best = header;
+            }
+        }
+        return best;
+    }
+
+    private void cover(int header) {
+        right[left[header]] = right[header];
+        left[right[header]] = left[header];
+        for (int i = down[header]; i != header; i = down[i]) {
+            for (int j = right[i]; j != i; j = right[j]) {
+                down[up[j]] = down[j];
+                up[down[j]] = up[j];
+                columnSizes[column[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int header) {
+        for (int i = up[header]; i != header; i = up[i]) {
+            for (int j = left[i]; j != i; j = left[j]) {
+                columnSizes[column[j]]++;
+                down[up[j]] = j;
+                up[down[j]] = j;
+            }
+        }
+        right[left[header]] = header;
+        left[right[header]] = header;
+    }
+
+    /**
+     * Places the option of node if its cage can still reach the target
+     * @return true if placed; false if the cage rules it out
+     */
+    private boolean place(int node) {
+        final int cell = options[node] / size;
+        final int value = options[node] % size + 1;
+        final int c = cellCages[cell];
+        if (!fits(c, cell, value)) {
+            return false;
+        }
+        cageSums[c] += value;
+        cageProducts[c] *= value;
+        cageFilled[c]++;
+        values[cell] = value;
+        return true;
+    }
+
+    /**
+     * @return true if cage c can still reach its target with value at
+     *         cell, an unknown cell of c, and the values placed so far
+     */
+    private boolean fits(int c, int cell, int value) {
+        final Puzzle.Cage cage = cages[c];
+        final int remaining = cage.rowsCols.length / 2 - cageFilled[c] - 1;
+        if (cage.operator == Operator.SUM || cage.operator == Operator.PRODUCT) {
+            // what the unknown cells must reach; the product so far divides the target
+            final long rest = cage.operator == Operator.SUM
+                    ? cage.target - cageSums[c] : cage.target / cageProducts[c];
+            final long others = cage.operator.without(rest, value);
+            return others >= 0 && cage.operator.canReach(others, remaining, size);
+        }
+        if (remaining > 0) {
+            return true;
+        }
+        final int first = cage.rowsCols[0] * size + cage.rowsCols[1];
+        final int other = first == cell ? cage.rowsCols[2] * size + cage.rowsCols[3] : first;
+        return cage.operator.reaches(value, values[other], cage.target);
+    }
+
+    /**
+     * Hides the options of the unknown cells of cage c that no longer fit
+     */
+    private void hideUnreachable(int c) {
+        final int[] rowsCols = cages[c].rowsCols;
+        for (int i = 0; i < rowsCols.length; i += 2) {
+            final int cell = rowsCols[i] * size + rowsCols[i + 1];
+            if (values[cell] != 0) {
+                continue;
+            }
+            final int header = 1 + cell;
+            for (int node = down[header], next; node != header; node = next) {
+                next = down[node];
+                if (!fits(c, cell, options[node] % size + 1)) {
+                    hide(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unlinks every node of the option of node from its column
+     */
+    private void hide(int node) {
+        int j = node;
+        do {
+            down[up[j]] = down[j];
+            up[down[j]] = up[j];
+            columnSizes[column[j]]--;
+            j = right[j];
+        } while (j != node);
+        hidden[hiddenSize++] = node;
+    }
+
+    private void unhide(int node) {
+        int j = left[node];
+        do {
+            columnSizes[column[j]]++;
+            down[up[j]] = j;
+            up[down[j]] = j;
+            j = left[j];
+        } while (j != left[node]);
+    }
+
+    private void unplace(int node) {
+        final int cell = options[node] / size;
+        final int value = options[node] % size + 1;
+        final int c = cellCages[cell];
+        cageSums[c] -= value;
+        cageProducts[c] /= value;
+        cageFilled[c]--;
+        values[cell] = 0;
+    }
+}
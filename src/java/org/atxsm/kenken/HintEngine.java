@@ -0,0 +1,223 @@
+package org.atxsm.kenken;
+
+/**
+ * Finds the next logical step from a partially filled grid, for players
+ * who ask for a hint.
+ * <p>
+ * Each cage and line is revised once, on a copy of the grid, by the
+ * solver's own rules, and the cheapest rule in the order of
+ * {@link SolveStats.Rule} that removes a candidate from some cell gives
+ * the hint; nothing else is searched or solved. Cages are looked at as
+ * the known values leave them: the unknown cells and the target still to
+ * reach.
+ * <p>
+ * The solver holding the cage tables is built once per puzzle, with every
+ * table looked up in advance, and is only copied from, so each hint reuses
+ * the tables and one engine may serve any number of grids and threads.
+ */
+public class HintEngine {
+    private final int size;
+    private final Puzzle.Cage[] cages;
+    private final Solver rules;
+
+    public HintEngine(Puzzle puzzle) {
+        this.size = puzzle.getSize();
+        this.cages = puzzle.getCages().toArray(new Puzzle.Cage[puzzle.getCageCount()]);
+        this.rules = new Solver(puzzle);
+        rules.lookUpTables();
+    }
+
+    /**
+     * @param grid values and candidates so far; left unchanged
+     * @return the cheapest deduction that removes a candidate, or null if
+     *         no rule makes progress or grid has a contradiction
+     */
+    public Hint next(Solution grid) {
+        if (grid.getSize() != size) {
+            throw new IllegalArgumentException("grid is " + grid.getSize() + "x" + grid.getSize()
+                    + ", puzzle is " + size + "x" + size);
+        }
+        if (grid.hasContradiction()) {
+            return null;
+        }
+        final Hint unique = uniqueness(grid);
+        final Hint hint = revisions(grid);
+        return unique != null && (hint == null || unique.rule.compareTo(hint.rule) < 0) ? unique : hint;
+    }
+
+    private Hint uniqueness(Solution grid) {
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                final int value = grid.valueOrZero(row, col);
+                if (value == 0) {
+                    continue;
+                }
+                for (int i = 0; i < size; i++) {
+                    if (i != col && (grid.candidateMask(row, i) & Solution.bit(value)) != 0) {
+                        return new Hint(SolveStats.Rule.UNIQUENESS, grid, row, i, Solution.bit(value),
+                                cell(row, col) + " is " + value);
+                    }
+                    if (i != row && (grid.candidateMask(i, col) & Solution.bit(value)) != 0) {
+                        return new Hint(SolveStats.Rule.UNIQUENESS, grid, i, col, Solution.bit(value),
+                                cell(row, col) + " is " + value);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Revises every cage and line of grid in turn, undoing each revision
+     * before the next
+     * @return hint for the first cell changed by the cheapest rule that
+     *         made progress without a contradiction, or null if none did
+     */
+    private Hint revisions(Solution grid) {
+        final Solver solver = rules.copy(grid);
+        final Solution copy = solver.getSolution();
+        Hint best = null;
+        for (int id = 0; id < cages.length + 2 * size; id++) {
+            final int solutionMark = copy.mark();
+            final int cageMark = solver.cageMark();
+            SolveStats.Rule rule = solver.revise(id);
+            if (rule != null && !copy.hasContradiction()) {
+                if (rule == SolveStats.Rule.IDENTITY && id < cages.length && cages[id].rowsCols.length > 2) {
+                    rule = SolveStats.Rule.SHRINK; // one unknown cell left
+                }
+                final Hint hint = best == null || rule.compareTo(best.rule) < 0
+                        ? hint(grid, copy, solutionMark, rule, id) : null;
+                if (hint != null) {
+                    best = hint;
+                }
+            }
+            solver.undo(solutionMark, cageMark);
+            if (best != null && best.rule == SolveStats.Rule.IDENTITY) {
+                break; // nothing is cheaper
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the candidates of grid removed from the first cell the
+     *         revision of constraint id changed in copy after mark
+     */
+    private Hint hint(Solution grid, Solution copy, int mark, SolveStats.Rule rule, int id) {
+        for (int position = mark; position < copy.mark(); position++) {
+            final int row = copy.changedCell(position) / size;
+            final int col = copy.changedCell(position) % size;
+            final long removed = grid.candidateMask(row, col) & ~copy.candidateMask(row, col);
+            if (removed == 0) {
+                continue;
+            }
+            if (id < cages.length) {
+                return new Hint(rule, grid, row, col, removed, "of the " + label(cages[id]) + " cage");
+            }
+            final int line = id - cages.length;
+            final String name = line < size ? "row " + line : "column " + (line - size);
+            final long remaining = grid.candidateMask(row, col) & ~removed;
+            if (Long.bitCount(remaining) == 1 && places(grid, line, remaining) == 1) {
+                return new Hint(rule, grid, row, col, removed,
+                        "it is the only place for " + Solution.lowestValue(remaining) + " in " + name);
+            }
+            return new Hint(rule, grid, row, col, removed, "other cells of " + name + " must hold them");
+        }
+        return null;
+    }
+
+    /**
+     * @return cells of a row (line &lt; size) or column (line - size) with
+     *         any of the candidates of mask
+     */
+    private int places(Solution grid, int line, long mask) {
+        int places = 0;
+        for (int i = 0; i < size; i++) {
+            final long candidates = line < size ? grid.candidateMask(line, i) : grid.candidateMask(i, line - size);
+            if ((candidates & mask) != 0) {
+                places++;
+            }
+        }
+        return places;
+    }
+
+    private static String label(Puzzle.Cage cage) {
+        return cage.rowsCols.length == 2 ? Long.toString(cage.target) : cage.target + "" + cage.operator.symbol;
+    }
+
+    private static String cell(int row, int col) {
+        return "(" + row + "," + col + ")";
+    }
+
+    /**
+     * One deduction: candidates that can be removed from a cell, the rule
+     * that removes them and why
+     */
+    public static final class Hint {
+        private final SolveStats.Rule rule;
+        private final int row;
+        private final int col;
+        private final long removed;
+        private final int value;
+        private final String reason;
+
+        Hint(SolveStats.Rule rule, Solution grid, int row, int col, long removed, String reason) {
+            this.rule = rule;
+            this.row = row;
+            this.col = col;
+            this.removed = removed;
+            final long remaining = grid.candidateMask(row, col) & ~removed;
+            this.value = Long.bitCount(remaining) == 1 ? Solution.lowestValue(remaining) : 0;
+            this.reason = reason;
+        }
+
+        public SolveStats.Rule getRule() {
+            return rule;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getCol() {
+            return col;
+        }
+
+        /**
+         * @return bitmask of the values ruled out, bit k for value k+1
+         */
+        public long getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the value the cell must have, or 0 if the hint only
+         *         rules some values out
+         */
+        public int getValue() {
+            return value;
+        }
+
+        /**
+         * Removes the ruled out values from grid
+         * @return true if candidates were removed; false if unchanged
+         */
+        public boolean applyTo(Solution grid) {
+            return grid.restrict(row, col, ~removed);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("cell ").append(cell(row, col));
+            if (value != 0) {
+                sb.append(" must be ").append(value);
+            } else {
+                sb.append(" cannot be ");
+                for (long mask = removed; mask != 0; mask &= mask - 1) {
+                    sb.append(Solution.lowestValue(mask)).append(mask == Long.lowestOneBit(mask) ? "" : " or ");
+                }
+            }
+            return sb.append(" because ").append(reason).toString();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.atxsm.kenken;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, eg: nanoseconds, with buckets laid
+ * out like an HDR histogram: values below 2 * {@link #SUB_BUCKETS} each
+ * have a bucket, and every power of two above that is split into
+ * {@link #SUB_BUCKETS} equal buckets, so a value is known to within
+ * about 3% however large it is.
+ * <p>
+ * Recording is lock free: one atomic increment of the bucket, plus the
+ * count and sum in adders and a compare and set while the maximum grows.
+ * Reads run concurrently with recording and see each bucket as it was
+ * when read, so a percentile may miss values recorded meanwhile.
+ */
+final class LatencyHistogram {
+    static final int SUB_BUCKETS = 32;
+    private static final int SUB_BITS = 5;
+    // the highest power of two of a positive long is 2^62
+    private static final int BUCKETS = (62 - SUB_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @throws IllegalArgumentException if value is negative
+     */
+    void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getSum() {
+        return sum.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile from 0 to 1
+     * @return highest value of the bucket holding the quantile, no more
+     *         than the maximum; 0 if nothing was recorded
+     */
+    long getValueAt(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be from 0 to 1: " + quantile);
+        }
+        long total = 0;
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(lowest(i + 1) - 1, max.get());
+            }
+        }
+        return 0;
+    }
+
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return lowest value in bucket i
+     */
+    static long lowest(int i) {
+        if (i < 2 * SUB_BUCKETS) {
+            return i;
+        }
+        final int shift = i / SUB_BUCKETS - 1;
+        return (long) (i % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+}
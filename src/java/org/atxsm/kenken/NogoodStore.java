@@ -0,0 +1,192 @@
+package org.atxsm.kenken;
+
+import java.util.Arrays;
+
+/**
+ * Nogoods learned by the search: sets of cell values that no solution
+ * holds all of at once, with the cell values as literals
+ * <code>cell * size + value - 1</code>.
+ * <p>
+ * Each nogood watches two of its literals that do not hold yet, and is
+ * only looked at when one of them comes to hold. It then watches another
+ * literal that does not hold, or, if there is none, the value of its
+ * other watched literal is removed from that cell. Backtracking only
+ * widens candidates, so watches stay valid without being undone.
+ * <p>
+ * Nogoods that prune or fail are bumped, with later bumps counting for
+ * more than earlier ones; once there are more than the capacity the less
+ * active half is dropped.
+ */
+final class NogoodStore {
+    /** growth of the bump per conflict, so that old activity decays */
+    private static final double DECAY = 1 / 0.95;
+
+    private final int size;
+    private final int capacity;
+    private int[][] nogoods = new int[16][]; // watched literals first
+    private double[] activities = new double[16];
+    private int count;
+    private final int[][] watches;   // nogoods watching each literal
+    private final int[] watchSizes;
+    private double bump = 1;
+    private long learned;
+
+    /**
+     * @param capacity most nogoods kept after {@link #reduce()}
+     */
+    NogoodStore(int size, int capacity) {
+        this.size = size;
+        this.capacity = capacity;
+        this.watches = new int[size * size * size][];
+        this.watchSizes = new int[watches.length];
+    }
+
+    /**
+     * @return number of nogoods kept
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return number of nogoods added since construction, including ones
+     *         that pruned solution at once or were later dropped
+     */
+    long getLearned() {
+        return learned;
+    }
+
+    /**
+     * Adds the nogood of the given cell values. Nogoods with fewer than two
+     * literals that do not hold in solution are applied to it at once and
+     * not kept, so callers add nogoods at the root of the search.
+     * @param literals cell * size + value - 1 of each value; not kept
+     */
+    void add(int[] literals, int length, Solution solution) {
+        learned++;
+        final int[] nogood = Arrays.copyOf(literals, length);
+        int open = 0;
+        for (int i = 0; i < length && open < 2; i++) {
+            if (!holds(solution, nogood[i])) {
+                final int swap = nogood[open];
+                nogood[open++] = nogood[i];
+                nogood[i] = swap;
+            }
+        }
+        if (open < 2) {
+            // all but at most one hold already: remove that one, or fail
+            exclude(solution, nogood[0]);
+            return;
+        }
+        if (count == nogoods.length) {
+            nogoods = Arrays.copyOf(nogoods, count * 2);
+            activities = Arrays.copyOf(activities, count * 2);
+        }
+        nogoods[count] = nogood;
+        activities[count] = 0;
+        watch(nogood[0], count);
+        watch(nogood[1], count);
+        count++;
+    }
+
+    /**
+     * Looks at the nogoods watching value at cell, which has just come to
+     * hold, and removes the values they rule out from solution
+     */
+    void propagate(Solution solution, int cell, int value) {
+        final int literal = cell * size + value - 1;
+        final int[] watching = watches[literal];
+        int i = 0;
+        while (i < watchSizes[literal] && !solution.hasContradiction()) {
+            final int n = watching[i];
+            final int[] nogood = nogoods[n];
+            if (nogood[0] == literal) {
+                nogood[0] = nogood[1];
+                nogood[1] = literal;
+            }
+            if (!excluded(solution, nogood[0]) && !moveWatch(solution, nogood, n)) {
+                exclude(solution, nogood[0]);
+                activities[n] += bump;
+                bump *= DECAY;
+            }
+            if (nogood[1] == literal) {
+                i++;
+            } else {
+                watching[i] = watching[--watchSizes[literal]];
+            }
+        }
+        if (bump > 1e100) {
+            for (int k = 0; k < count; k++) {
+                activities[k] *= 1e-100;
+            }
+            bump *= 1e-100;
+        }
+    }
+
+    /**
+     * Drops the less active half once there are more nogoods than the capacity
+     */
+    void reduce() {
+        if (count <= capacity) {
+            return;
+        }
+        final double[] sorted = Arrays.copyOf(activities, count);
+        Arrays.sort(sorted);
+        final double threshold = sorted[count - capacity / 2];
+        int kept = 0;
+        for (int n = 0; n < count && kept < capacity / 2; n++) {
+            if (activities[n] >= threshold) {
+                nogoods[kept] = nogoods[n];
+                activities[kept++] = activities[n];
+            }
+        }
+        Arrays.fill(nogoods, kept, count, null);
+        count = kept;
+        Arrays.fill(watchSizes, 0);
+        for (int n = 0; n < count; n++) {
+            watch(nogoods[n][0], n);
+            watch(nogoods[n][1], n);
+        }
+    }
+
+    /**
+     * Replaces the watch on nogood[1] with a literal that does not hold
+     * @return false if every other literal holds
+     */
+    private boolean moveWatch(Solution solution, int[] nogood, int n) {
+        for (int k = 2; k < nogood.length; k++) {
+            if (!holds(solution, nogood[k])) {
+                final int swap = nogood[1];
+                nogood[1] = nogood[k];
+                nogood[k] = swap;
+                watch(nogood[1], n);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void watch(int literal, int n) {
+        if (watches[literal] == null) {
+            watches[literal] = new int[4];
+        } else if (watchSizes[literal] == watches[literal].length) {
+            watches[literal] = Arrays.copyOf(watches[literal], watchSizes[literal] * 2);
+        }
+        watches[literal][watchSizes[literal]++] = n;
+    }
+
+    private boolean holds(Solution solution, int literal) {
+        final int cell = literal / size;
+        return solution.valueOrZero(cell / size, cell % size) == literal % size + 1;
+    }
+
+    private boolean excluded(Solution solution, int literal) {
+        final int cell = literal / size;
+        return (solution.candidateMask(cell / size, cell % size) & Solution.bit(literal % size + 1)) == 0;
+    }
+
+    private void exclude(Solution solution, int literal) {
+        final int cell = literal / size;
+        solution.markImpossible(cell / size, cell % size, literal % size + 1);
+    }
+}
@@ -6,5 +6,63 @@ package org.atxsm.kenken;
 * Time: 10:59 PM
 */
 enum Operator {
-   SUM, PRODUCT, DIFFERENCE, RATIO
+   SUM('+'), PRODUCT('*'), DIFFERENCE('-'), RATIO('/');
+
+   /** as printed after the aggregate value in a cage corner */
+   final char symbol;
+
+   Operator(char symbol) {
+       this.symbol = symbol;
+   }
+
+   /**
+    * @return true if the values of a two-cell cage reach target
+    */
+   boolean reaches(int a, int b, long target) {
+       switch (this) {
+           case SUM: return a + b == target;
+           case PRODUCT: return (long) a * b == target;
+           case DIFFERENCE: return a - b == target || b - a == target;
+           case RATIO: return target <= Solution.MAX_SIZE && (a * target == b || b * target == a);
+           default: throw new IllegalStateException("unknown operator " + this);
+       }
+   }
+
+   /**
+    * @return true if the values of a full cage reach target
+    */
+   boolean reaches(int[] values, long target) {
+       if (this == DIFFERENCE || this == RATIO) {
+           return values.length == 2 && reaches(values[0], values[1], target);
+       }
+       long rest = target;
+       for (int i = 0; i < values.length && rest >= 0; i++) {
+           rest = without(rest, values[i]);
+       }
+       return rest == (this == SUM ? 0 : 1);
+   }
+
+   /**
+    * @return what the other cells of a SUM or PRODUCT cage must reach
+    *         once one of them holds value, or -1 if nothing can
+    */
+   long without(long target, int value) {
+       switch (this) {
+           case SUM: return target < value ? -1 : target - value;
+           case PRODUCT: return target % value == 0 ? target / value : -1;
+           default: throw new IllegalStateException("cannot remove a value from a " + this + " cage");
+       }
+   }
+
+   /**
+    * @return true if <code>cells</code> more cells of a SUM or PRODUCT
+    *         cage, with values from 1 to size, can still reach rest
+    */
+   boolean canReach(long rest, int cells, int size) {
+       switch (this) {
+           case SUM: return rest >= cells && rest <= (long) cells * size;
+           case PRODUCT: return cells > 0 ? rest >= 1 : rest == 1;
+           default: throw new IllegalStateException("cannot bound a " + this + " cage");
+       }
+   }
 }
@@ -0,0 +1,124 @@
+package org.atxsm.kenken;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * For each value of one cell of a two-cell cage, the values of the other
+ * cell that reach the target with it.
+ * <p>
+ * The relation is symmetric, so the values of one cell that some value of
+ * the other supports are the union of the partner masks of the other
+ * cell's candidates: a few ORs per pass with no branching on the operator.
+ * Tables depend only on the operator, target and puzzle size, so they are
+ * shared between cages and puzzles with the same key; the shared cache
+ * keeps the {@link #MAX_CACHED} most recently used.
+ */
+final class PairTable {
+    /** most tables kept in the shared cache */
+    static final int MAX_CACHED = 1 << 12;
+
+    // least recently used first; guarded by itself
+    private static final Map<Key, PairTable> TABLES = new LinkedHashMap<Key, PairTable>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PairTable> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private final long[] partners;         // bitmask of partners of value v at [v]
+    private final long[] distinctPartners; // the same without v itself
+
+    private PairTable(Operator operator, long target, int size) {
+        this.partners = new long[size + 1];
+        this.distinctPartners = new long[size + 1];
+        for (int a = 1; a <= size; a++) {
+            for (int b = 1; b <= size; b++) {
+                if (operator.reaches(a, b, target)) {
+                    partners[a] |= Solution.bit(b);
+                }
+            }
+            distinctPartners[a] = partners[a] & ~Solution.bit(a);
+        }
+    }
+
+    /**
+     * @return table for a two-cell cage, or a cage of more cells shrunk to
+     *         two unknown cells with what is left of its target
+     */
+    static PairTable forTarget(Operator operator, long target, int size) {
+        final Key key = new Key(operator, target, size);
+        synchronized (TABLES) {
+            PairTable table = TABLES.get(key);
+            if (table == null) {
+                table = new PairTable(operator, target, size);
+                TABLES.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * @return number of tables in the shared cache
+     */
+    static int cached() {
+        synchronized (TABLES) {
+            return TABLES.size();
+        }
+    }
+
+    static PairTable forCage(Puzzle.Cage cage, int size) {
+        if (cage.rowsCols.length != 4) {
+            throw new IllegalArgumentException("not a two-cell cage: " + cage);
+        }
+        return forTarget(cage.operator, cage.target, size);
+    }
+
+    /**
+     * @param others candidates of one cell
+     * @param sameLine true if the two cells share a row or column, so may
+     *                 not hold the same value
+     * @return values of the other cell that some value in others reaches
+     *         the target with
+     */
+    long supported(long others, boolean sameLine) {
+        final long[] table = sameLine ? distinctPartners : partners;
+        long supported = 0;
+        for (long mask = others; mask != 0; mask &= mask - 1) {
+            supported |= table[Long.numberOfTrailingZeros(mask) + 1];
+        }
+        return supported;
+    }
+
+    private static final class Key {
+        private final Operator operator;
+        private final long target;
+        private final int size;
+
+        Key(Operator operator, long target, int size) {
+            this.operator = operator;
+            this.target = target;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return target == key.target
+                    && size == key.size
+                    && operator == key.operator;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = operator.hashCode();
+            result = 31 * result + (int) (target ^ (target >>> 32));
+            result = 31 * result + size;
+            return result;
+        }
+    }
+}
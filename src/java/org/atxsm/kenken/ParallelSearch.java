@@ -0,0 +1,129 @@
+package org.atxsm.kenken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Searches the subtree below one solver state. Near the top of the tree
+ * each value of the branching cell gets its own task and its own copy of
+ * the solver; deeper down a task searches sequentially. All tasks of a run
+ * share a cancel flag that is set once enough solutions are found, and
+ * note when any of them gives up at the deadline of the root solver.
+ */
+class ParallelSearch extends RecursiveTask<Void> {
+    private static final long serialVersionUID = 1L;
+
+    private final Solver solver;
+    private final int depth;
+    private final Run run;
+
+    private ParallelSearch(Solver solver, int depth, Run run) {
+        this.solver = solver;
+        this.depth = depth;
+        this.run = run;
+    }
+
+    /**
+     * Searches the puzzle of root, leaving root itself untouched
+     */
+    static Run run(Solver root, ForkJoinPool pool, int splitDepth, int limit) {
+        final Run run = new Run(splitDepth, limit);
+        final Solver solver = root.copy();
+        solver.setCancelled(run.cancelled);
+        if (solver.propagate()) {
+            pool.invoke(new ParallelSearch(solver, 0, run));
+        }
+        return run;
+    }
+
+    @Override
+    protected Void compute() {
+        if (run.cancelled.get()) {
+            return null;
+        }
+        if (solver.isStopped()) {
+            run.stopped.set(true); // propagation gave up before checking the grid
+            return null;
+        }
+        if (depth >= run.splitDepth) {
+            while (solver.nextSolution()) {
+                run.found(solver.getSolution());
+            }
+            if (solver.isStopped()) {
+                run.stopped.set(true);
+            }
+            return null;
+        }
+        final int cell = solver.selectCell();
+        if (cell < 0) {
+            run.found(solver.getSolution());
+            return null;
+        }
+        final Solution solution = solver.getSolution();
+        final long candidates = solution.candidateMask(cell / solution.getSize(), cell % solution.getSize());
+        final List<ParallelSearch> branches = new ArrayList<ParallelSearch>();
+        for (long mask = candidates; mask != 0; mask &= mask - 1) {
+            final Solver branch = solver.copy();
+            if (branch.assign(cell, Solution.lowestValue(mask))) {
+                branches.add(new ParallelSearch(branch, depth + 1, run));
+            }
+        }
+        invokeAll(branches);
+        return null;
+    }
+
+    /**
+     * State shared by all tasks of one search
+     */
+    static class Run {
+        private final int splitDepth;
+        private final int limit;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean stopped = new AtomicBoolean();
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicReference<Solution> first = new AtomicReference<Solution>();
+
+        Run(int splitDepth, int limit) {
+            this.splitDepth = splitDepth;
+            this.limit = limit;
+        }
+
+        void found(Solution solution) {
+            final int found = count.incrementAndGet();
+            if (found > limit) {
+                return; // another task got there first
+            }
+            first.compareAndSet(null, new Solution(solution));
+            if (found == limit) {
+                cancelled.set(true);
+            }
+        }
+
+        /**
+         * @return number of solutions found, at most limit
+         */
+        int getCount() {
+            return Math.min(count.get(), limit);
+        }
+
+        /**
+         * @return true if some task gave up at the deadline before limit
+         *         solutions were found, so the count may be short
+         */
+        boolean isStopped() {
+            return stopped.get() && getCount() < limit;
+        }
+
+        /**
+         * @return a copy of the first solution found, or null if none
+         */
+        Solution getFirst() {
+            return first.get();
+        }
+    }
+}
@@ -31,89 +31,198 @@ import java.util.*;
  */
 public class Puzzle {
     private final int size;
-    private final Set<Cage> cages;
+    private final Cage[] cages;
+    private final List<Cage> cageList;
 
     // must use Builder
-    private Puzzle(final int size, Set<Cage> cages) {
+    private Puzzle(final int size, Cage[] cages) {
         this.size = size;
-        this.cages = Collections.unmodifiableSet(new HashSet<Cage>(cages));
+        this.cages = cages;
+        this.cageList = Collections.unmodifiableList(Arrays.asList(cages));
     }
 
     public int getSize() {
         return size;
     }
 
-    public Set<Cage> getCages() {
-        return cages;
+    /**
+     * @return cages in the order they were added
+     */
+    public List<Cage> getCages() {
+        return cageList;
+    }
+
+    int getCageCount() {
+        return cages.length;
+    }
+
+    Cage getCage(int index) {
+        return cages[index];
+    }
+
+    /**
+     * Puzzles are equal if they have the same size and the same cages,
+     * in any order
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Puzzle puzzle = (Puzzle) o;
+
+        return size == puzzle.size
+                && cages.length == puzzle.cages.length
+                && new HashSet<Cage>(cageList).equals(new HashSet<Cage>(puzzle.cageList));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = size;
+        for (Cage cage : cages) {
+            result += cage.hashCode(); // independent of cage order
+        }
+        return result;
     }
 
     public static class Builder {
         private int size;
-        private Set<Cage> cages = new HashSet<Cage>();
+        private List<Cage> cages = new ArrayList<Cage>();
 
         public Builder(int size) {
             this.size = size;
         }
 
-        public Builder addCage(int val, Operator op, int... rowsCols) {
+        public Builder addCage(long val, Operator op, int... rowsCols) {
             cages.add(new Cage(val, op, rowsCols));
             return this;
         }
 
+        Builder addCage(Cage cage) {
+            cages.add(cage);
+            return this;
+        }
+
         public Puzzle build() {
-            checkAllCellsInCages();
-            return new Puzzle(size, cages);
+            checkCages();
+            return new Puzzle(size, cages.toArray(new Cage[cages.size()]));
         }
 
         /**
-         * check to ensure all cells are in a cage
-         * @throws IllegalStateException when cells remain uncaged
+         * check to ensure every cell is in exactly one cage, the cells of
+         * each cage are inside the grid and adjacent, and each cage's value
+         * suits its operator
+         * @throws IllegalStateException listing every problem found
          */
-        private void checkAllCellsInCages() {
-            Map<String, Cage> cellCageMap = new HashMap<String, Cage>();
-            // put all cells in a Map keyed by "row,col"
-            for (Cage cage : cages) {
+        private void checkCages() {
+            if (size < 1 || size > Solution.MAX_SIZE) {
+                throw new IllegalStateException("size must be between 1 and " + Solution.MAX_SIZE);
+            }
+            final StringBuilder errors = new StringBuilder();
+            // owner[row * size + col] is 1 + index of the cage holding the cell, 0 if uncaged
+            final int[] owner = new int[size * size];
+            for (int c = 0; c < cages.size(); c++) {
+                final Cage cage = cages.get(c);
+                boolean owned = true; // every cell of the cage is in the grid and in no other cage
                 for (int i = 0; i < cage.rowsCols.length; i += 2) {
                     final int row = cage.rowsCols[i];
                     final int col = cage.rowsCols[i+1];
-                    final String key = makeKey(row, col);
-                    if (cellCageMap.containsKey(key)) {
-                        throw new IllegalStateException("Cell at ("
-                                + key + ") cannot be in both "
-                                + cellCageMap.get(key) + " and " + cage);
+                    if (row < 0 || row >= size || col < 0 || col >= size) {
+                        error(errors).append("Cell at (").append(row).append(',').append(col)
+                                .append(") of ").append(cage).append(" is outside the grid");
+                        owned = false;
+                    } else if (owner[row * size + col] != 0) {
+                        error(errors).append("Cell at (").append(row).append(',').append(col)
+                                .append(") cannot be in both ").append(cages.get(owner[row * size + col] - 1))
+                                .append(" and ").append(cage);
+                        owned = false;
+                    } else {
+                        owner[row * size + col] = c + 1;
                     }
-                    cellCageMap.put(key, cage);
+                }
+                if (owned && !isConnected(cage, c + 1, owner)) {
+                    error(errors).append("Cells of ").append(cage).append(" are not adjacent");
+                }
+                if (cage.rowsCols.length == 2 && (cage.target < 1 || cage.target > size)) {
+                    error(errors).append(cage).append(" has one cell, so its value must be between 1 and ")
+                            .append(size);
+                } else if ((cage.operator == Operator.PRODUCT || cage.operator == Operator.RATIO)
+                        && cage.target < 1) {
+                    error(errors).append(cage).append(" must have a positive value");
                 }
             }
             // verify all cells in grid are in a cage
-            final StringBuilder sb = new StringBuilder();
+            boolean uncaged = false;
             for (int row = 0 ; row < size; row++) {
                 for (int col = 0; col < size; col++) {
-                    final String key = makeKey(row, col);
-                    if (!cellCageMap.containsKey(key)) {
-                        if (sb.length() > 0) { sb.append(','); }
-                        sb.append('(').append(key).append(')');
+                    if (owner[row * size + col] == 0) {
+                        if (uncaged) {
+                            errors.append(',');
+                        } else {
+                            error(errors).append("Some cells remain uncaged: ");
+                            uncaged = true;
+                        }
+                        errors.append('(').append(row).append(',').append(col).append(')');
                     }
                 }
             }
-            if (sb.length() > 0) {
-                sb.insert(0, "Some cells remain uncaged: ");
-                throw new IllegalStateException(sb.toString());
+            if (errors.length() > 0) {
+                throw new IllegalStateException(errors.toString());
             }
         }
 
-        private String makeKey(int r, int c) {
-            return String.format("%d,%d", r, c);
+        private static StringBuilder error(StringBuilder errors) {
+            return errors.length() > 0 ? errors.append("; ") : errors;
         }
 
+        /**
+         * @return true if every cell of cage can be reached from its first
+         *         cell through horizontally or vertically adjacent cells
+         *         owned by the cage
+         */
+        private boolean isConnected(Cage cage, int id, int[] owner) {
+            final int cells = cage.rowsCols.length / 2;
+            // flood fill from the first cell, marking visited cells negative
+            final int[] stack = new int[cells];
+            int top = 0;
+            int reached = 0;
+            stack[top++] = cage.rowsCols[0] * size + cage.rowsCols[1];
+            owner[stack[0]] = -id;
+            while (top > 0) {
+                final int cell = stack[--top];
+                reached++;
+                final int row = cell / size;
+                final int col = cell % size;
+                if (row > 0 && owner[cell - size] == id) {
+                    owner[cell - size] = -id;
+                    stack[top++] = cell - size;
+                }
+                if (row < size - 1 && owner[cell + size] == id) {
+                    owner[cell + size] = -id;
+                    stack[top++] = cell + size;
+                }
+                if (col > 0 && owner[cell - 1] == id) {
+                    owner[cell - 1] = -id;
+                    stack[top++] = cell - 1;
+                }
+                if (col < size - 1 && owner[cell + 1] == id) {
+                    owner[cell + 1] = -id;
+                    stack[top++] = cell + 1;
+                }
+            }
+            for (int i = 0; i < cage.rowsCols.length; i += 2) {
+                owner[cage.rowsCols[i] * size + cage.rowsCols[i+1]] = id;
+            }
+            return reached == cells;
+        }
     }
 
     static class Cage {
-        final int target;
+        final long target;
         final Operator operator;
         final int[] rowsCols;
 
-        Cage(int val, Operator op, int... rowsCols) {
+        Cage(long val, Operator op, int... rowsCols) {
             if (rowsCols.length % 2 != 0 || rowsCols.length < 1) {
                 throw new IllegalArgumentException("rows and columns of cell locations must be in pairs");
             }
@@ -142,7 +251,7 @@ public class Puzzle {
 
         @Override
         public int hashCode() {
-            int result = target;
+            int result = (int) (target ^ (target >>> 32));
             result = 31 * result + (operator != null ? operator.hashCode() : 0);
             result = 31 * result + (rowsCols != null ? Arrays.hashCode(rowsCols) : 0);
             return result;
@@ -0,0 +1,200 @@
+package org.atxsm.kenken;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies puzzles that are the same up to rotation and reflection.
+ * <p>
+ * Each of the eight symmetries of the square grid is applied in turn and
+ * the puzzle is written out in a canonical encoding: the cage label of
+ * every cell in row-major order, labels numbered by first appearance,
+ * followed by the operator and target of each label. The smallest encoding
+ * is the canonical form, and its MD5 digest is the 128-bit fingerprint.
+ */
+public final class PuzzleCanonicalizer {
+    /** bit of a transform number that swaps rows and columns, applied first */
+    static final int TRANSPOSE = 4;
+    /** bit of a transform number that reverses the row order */
+    static final int FLIP_ROWS = 1;
+    /** bit of a transform number that reverses the column order */
+    static final int FLIP_COLS = 2;
+    static final int TRANSFORMS = 8;
+
+    private PuzzleCanonicalizer() {
+    }
+
+    public static Canonical canonicalize(Puzzle puzzle) {
+        long[] best = null;
+        int bestTransform = 0;
+        for (int transform = 0; transform < TRANSFORMS; transform++) {
+            final long[] encoding = encode(puzzle, transform);
+            if (best == null || compare(encoding, best) < 0) {
+                best = encoding;
+                bestTransform = transform;
+            }
+        }
+        return new Canonical(puzzle.getSize(), bestTransform, fingerprint(best));
+    }
+
+    /**
+     * @return index of the cell that row, col moves to under transform
+     */
+    static int apply(int transform, int size, int row, int col) {
+        if ((transform & TRANSPOSE) != 0) {
+            final int swap = row;
+            row = col;
+            col = swap;
+        }
+        if ((transform & FLIP_ROWS) != 0) {
+            row = size - 1 - row;
+        }
+        if ((transform & FLIP_COLS) != 0) {
+            col = size - 1 - col;
+        }
+        return row * size + col;
+    }
+
+    private static long[] encode(Puzzle puzzle, int transform) {
+        final int size = puzzle.getSize();
+        final int cageCount = puzzle.getCageCount();
+        // cage of each transformed cell
+        final int[] owner = new int[size * size];
+        for (int c = 0; c < cageCount; c++) {
+            final int[] rowsCols = puzzle.getCage(c).rowsCols;
+            for (int i = 0; i < rowsCols.length; i += 2) {
+                owner[apply(transform, size, rowsCols[i], rowsCols[i + 1])] = c;
+            }
+        }
+        final int[] labels = new int[cageCount]; // 1 + label of each cage, 0 until seen
+        final long[] encoding = new long[1 + owner.length + 2 * cageCount];
+        encoding[0] = size;
+        int next = 0;
+        for (int cell = 0; cell < owner.length; cell++) {
+            final int cage = owner[cell];
+            if (labels[cage] == 0) {
+                final Puzzle.Cage seen = puzzle.getCage(cage);
+                encoding[1 + owner.length + 2 * next] = seen.operator.ordinal();
+                encoding[2 + owner.length + 2 * next] = seen.target;
+                labels[cage] = ++next;
+            }
+            encoding[1 + cell] = labels[cage] - 1;
+        }
+        return encoding;
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return a[i] < b[i] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static Fingerprint fingerprint(long[] encoding) {
+        final ByteBuffer bytes = ByteBuffer.allocate(encoding.length * 8);
+        for (long value : encoding) {
+            bytes.putLong(value);
+        }
+        try {
+            final ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("MD5").digest(bytes.array()));
+            return new Fingerprint(digest.getLong(), digest.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every Java platform supports MD5", e);
+        }
+    }
+
+    /**
+     * Fingerprint of a puzzle plus the symmetry that takes it to the
+     * canonical orientation, for moving grids between the two
+     */
+    public static final class Canonical {
+        private final int size;
+        private final int transform;
+        private final Fingerprint fingerprint;
+
+        Canonical(int size, int transform, Fingerprint fingerprint) {
+            this.size = size;
+            this.transform = transform;
+            this.fingerprint = fingerprint;
+        }
+
+        public Fingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        int getTransform() {
+            return transform;
+        }
+
+        /**
+         * @return values of solution in the canonical orientation, row by row
+         */
+        public int[] toCanonical(Solution solution) {
+            final int[] values = new int[size * size];
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    values[apply(transform, size, row, col)] = solution.valueOrZero(row, col);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * @param values grid in the canonical orientation, row by row
+         * @return the grid in the orientation of the canonicalized puzzle
+         */
+        public Solution fromCanonical(int[] values) {
+            final int[] oriented = new int[size * size];
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    oriented[row * size + col] = values[apply(transform, size, row, col)];
+                }
+            }
+            return new Solution(size, oriented);
+        }
+    }
+
+    /**
+     * 128-bit puzzle fingerprint
+     */
+    public static final class Fingerprint {
+        private final long high;
+        private final long low;
+
+        Fingerprint(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        public long getHigh() {
+            return high;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Fingerprint that = (Fingerprint) o;
+
+            return high == that.high && low == that.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (low ^ (low >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
+}
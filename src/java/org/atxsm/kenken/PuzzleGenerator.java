@@ -0,0 +1,245 @@
+package org.atxsm.kenken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Generates random puzzles with exactly one solution.
+ * <p>
+ * A candidate is cut from a random Latin square: cells are visited row by
+ * row and each cell not yet caged starts a new cage, grown through random
+ * free neighbours up to a size drawn from the cage size weights. Each cage
+ * then gets an operator and the target its values reach. Candidates the
+ * {@link Solver} finds a second solution for, or cannot check within
+ * {@link #CHECK_BUDGET}, are thrown away. The budget counts search nodes
+ * and propagations rather than time, so whether a candidate is kept does
+ * not depend on the machine or its load.
+ * <p>
+ * A generator holds no mutable state, so one may be shared between threads.
+ */
+public class PuzzleGenerator {
+    /**
+     * work allowed to check a candidate for a second solution; about a
+     * second on the hardest 12x12 candidates
+     */
+    static final SolveBudget CHECK_BUDGET = new SolveBudget.Builder()
+            .maxNodes(1 << 16)
+            .maxPropagations(1 << 22)
+            .build();
+    /**
+     * candidates tried for one puzzle before giving up; some weights, like
+     * only two-cell cages on a 2x2 grid, never give a unique puzzle
+     */
+    static final int MAX_ATTEMPTS = 1 << 12;
+
+    private static final int[][] NEIGHBOURS = {{0, 1}, {1, 0}, {0, -1}, {-1, 0}};
+
+    private final int size;
+    private final int[] cumulativeWeights; // weights of cages of 1, 2, ... cells, summed
+    private final int totalWeight;
+
+    /**
+     * @param cageSizeWeights relative frequency of cages of 1, 2, 3, ... cells
+     */
+    public PuzzleGenerator(int size, int... cageSizeWeights) {
+        if (size < 1 || size > Solution.MAX_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + Solution.MAX_SIZE);
+        }
+        this.size = size;
+        this.cumulativeWeights = new int[cageSizeWeights.length];
+        int total = 0;
+        for (int i = 0; i < cageSizeWeights.length; i++) {
+            if (cageSizeWeights[i] < 0) {
+                throw new IllegalArgumentException("cage size weights must not be negative");
+            }
+            total += cageSizeWeights[i];
+            cumulativeWeights[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("some cage size must have a positive weight");
+        }
+        this.totalWeight = total;
+    }
+
+    /**
+     * @return a puzzle with exactly one solution
+     * @throws IllegalStateException if none of {@link #MAX_ATTEMPTS}
+     *         candidates has exactly one solution
+     */
+    public Puzzle generate(Random random) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final Puzzle puzzle = candidate(random);
+            if (isUnique(puzzle)) {
+                return puzzle;
+            }
+        }
+        throw new IllegalStateException("no unique " + size + "x" + size + " puzzle in "
+                + MAX_ATTEMPTS + " candidates; try other cage size weights");
+    }
+
+    /**
+     * Generates count puzzles on executor. Puzzle i depends only on seed
+     * and i, so the result does not depend on the executor.
+     * @return puzzles in index order
+     */
+    public List<Puzzle> generate(int count, long seed, ExecutorService executor) {
+        final List<Future<Puzzle>> futures = new ArrayList<Future<Puzzle>>(count);
+        for (int i = 0; i < count; i++) {
+            final Random random = new Random(seed + i * 0x9E3779B97F4A7C15L);
+            futures.add(executor.submit(new Callable<Puzzle>() {
+                @Override
+                public Puzzle call() {
+                    return generate(random);
+                }
+            }));
+        }
+        final List<Puzzle> puzzles = new ArrayList<Puzzle>(count);
+        for (Future<Puzzle> future : futures) {
+            try {
+                puzzles.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted waiting for puzzles", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("generator failed", e.getCause());
+            }
+        }
+        return puzzles;
+    }
+
+    /**
+     * @return true if the solver proves puzzle has exactly one solution
+     */
+    static boolean isUnique(Puzzle puzzle) {
+        final Solver solver = new Solver(puzzle);
+        return solver.countSolutions(2, CHECK_BUDGET) == 1 && !solver.isStopped();
+    }
+
+    /**
+     * @return a valid puzzle that may have more than one solution
+     */
+    Puzzle candidate(Random random) {
+        final int[] values = latinSquare(size, random);
+        final int[] owner = new int[size * size];
+        Arrays.fill(owner, -1);
+        final int[] cells = new int[cumulativeWeights.length];
+        final int[] free = new int[4 * cumulativeWeights.length];
+        final Puzzle.Builder builder = new Puzzle.Builder(size);
+        int cages = 0;
+        for (int start = 0; start < owner.length; start++) {
+            if (owner[start] >= 0) {
+                continue;
+            }
+            final int wanted = cageSize(random);
+            int count = 0;
+            cells[count++] = start;
+            owner[start] = cages;
+            while (count < wanted) {
+                int frees = 0;
+                for (int i = 0; i < count; i++) {
+                    for (int[] neighbour : NEIGHBOURS) {
+                        final int row = cells[i] / size + neighbour[0];
+                        final int col = cells[i] % size + neighbour[1];
+                        if (row >= 0 && row < size && col >= 0 && col < size && owner[row * size + col] < 0) {
+                            free[frees++] = row * size + col;
+                        }
+                    }
+                }
+                if (frees == 0) {
+                    break; // boxed in; keep the smaller cage
+                }
+                final int next = free[random.nextInt(frees)];
+                owner[next] = cages;
+                cells[count++] = next;
+            }
+            addCage(builder, values, cells, count, random);
+            cages++;
+        }
+        return builder.build();
+    }
+
+    private int cageSize(Random random) {
+        final int draw = random.nextInt(totalWeight);
+        int cells = 0;
+        while (cumulativeWeights[cells] <= draw) {
+            cells++;
+        }
+        return cells + 1;
+    }
+
+    private void addCage(Puzzle.Builder builder, int[] values, int[] cells, int count, Random random) {
+        final int[] rowsCols = new int[count * 2];
+        long sum = 0;
+        long product = 1;
+        boolean overflow = false;
+        for (int i = 0; i < count; i++) {
+            rowsCols[2 * i] = cells[i] / size;
+            rowsCols[2 * i + 1] = cells[i] % size;
+            sum += values[cells[i]];
+            overflow |= product > Long.MAX_VALUE / values[cells[i]];
+            product *= values[cells[i]];
+        }
+        if (count == 2) {
+            final int high = Math.max(values[cells[0]], values[cells[1]]);
+            final int low = Math.min(values[cells[0]], values[cells[1]]);
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.addCage(high - low, Operator.DIFFERENCE, rowsCols);
+                    return;
+                case 1:
+                    if (high % low == 0) {
+                        builder.addCage(high / low, Operator.RATIO, rowsCols);
+                        return;
+                    }
+                    break;
+                case 2:
+                    builder.addCage(product, Operator.PRODUCT, rowsCols);
+                    return;
+                default:
+                    break;
+            }
+        } else if (count > 2 && !overflow && random.nextBoolean()) {
+            builder.addCage(product, Operator.PRODUCT, rowsCols);
+            return;
+        }
+        builder.addCage(sum, Operator.SUM, rowsCols);
+    }
+
+    /**
+     * Shuffles the rows, columns and symbols of a cyclic Latin square.
+     * Not uniform over all Latin squares, but cheap, and the cages hide
+     * the structure from the solver.
+     */
+    static int[] latinSquare(int size, Random random) {
+        final int[] rows = shuffled(size, random);
+        final int[] cols = shuffled(size, random);
+        final int[] symbols = shuffled(size, random);
+        final int[] values = new int[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                values[row * size + col] = symbols[(rows[row] + cols[col]) % size] + 1;
+            }
+        }
+        return values;
+    }
+
+    private static int[] shuffled(int size, Random random) {
+        final int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            permutation[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int swap = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = swap;
+        }
+        return permutation;
+    }
+}
@@ -0,0 +1,215 @@
+package org.atxsm.kenken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads puzzles written by {@link PuzzleWriter}, one record at a time.
+ * <p>
+ * Records are decoded straight from the buffer into cage cell arrays.
+ * Files can be read through a channel or memory-mapped a window at a time,
+ * so archives larger than memory (or than 2GB) can be scanned.
+ */
+public class PuzzleReader implements Closeable {
+    static final int MAPPED_WINDOW = 1 << 28;
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private final ReadableByteChannel channel;
+    private final FileChannel mapped; // null unless reading a memory-mapped file
+    private int window;       // grows to fit a record larger than it
+    private ByteBuffer buffer;
+    private long bufferStart; // file position of buffer index 0 when mapped
+
+    public PuzzleReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.mapped = null;
+        this.window = 0;
+        this.buffer = ByteBuffer.allocate(1 << 16);
+        buffer.flip(); // empty
+        readHeader();
+    }
+
+    private PuzzleReader(FileChannel file, int window) throws IOException {
+        this.channel = file;
+        this.mapped = file;
+        this.window = window;
+        this.buffer = map(0);
+        readHeader();
+    }
+
+    /**
+     * Reads a file by memory-mapping it, {@value #MAPPED_WINDOW} bytes at a time
+     */
+    public static PuzzleReader map(Path path) throws IOException {
+        return map(path, MAPPED_WINDOW);
+    }
+
+    static PuzzleReader map(Path path, int window) throws IOException {
+        final FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new PuzzleReader(file, window);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        final byte[] header = new byte[PuzzleWriter.MAGIC.length + 1];
+        while (buffer.remaining() < header.length) {
+            if (!fill()) {
+                throw new IOException("not a puzzle stream: missing header");
+            }
+        }
+        buffer.get(header);
+        if (!Arrays.equals(PuzzleWriter.MAGIC, Arrays.copyOf(header, PuzzleWriter.MAGIC.length))) {
+            throw new IOException("not a puzzle stream: bad magic");
+        }
+        if (header[PuzzleWriter.MAGIC.length] != PuzzleWriter.VERSION) {
+            throw new IOException("unsupported puzzle stream version " + header[PuzzleWriter.MAGIC.length]);
+        }
+    }
+
+    /**
+     * @return next puzzle, or null at the end of the stream
+     * @throws IOException if the stream is truncated or a record is invalid
+     */
+    public Puzzle read() throws IOException {
+        while (true) {
+            final int start = buffer.position();
+            try {
+                return decode();
+            } catch (BufferUnderflowException e) {
+                buffer.position(start);
+                final boolean empty = !buffer.hasRemaining();
+                if (!fill()) {
+                    if (empty) {
+                        return null;
+                    }
+                    throw new IOException("truncated puzzle record");
+                }
+            }
+        }
+    }
+
+    private Puzzle decode() throws IOException {
+        final int size = getVarint();
+        if (size < 1 || size > Solution.MAX_SIZE) {
+            throw new IOException("invalid puzzle size " + size);
+        }
+        final boolean wideCells = size * size > 256;
+        final int cageCount = getVarint();
+        if (cageCount < 1 || cageCount > size * size) {
+            throw new IOException("invalid cage count " + cageCount + " for " + size + "x" + size);
+        }
+        final Puzzle.Cage[] cages = new Puzzle.Cage[cageCount];
+        for (int c = 0; c < cageCount; c++) {
+            final int operator = buffer.get();
+            if (operator < 0 || operator >= OPERATORS.length) {
+                throw new IOException("invalid operator " + operator);
+            }
+            final long zigzag = getVarlong();
+            final long target = (zigzag >>> 1) ^ -(zigzag & 1);
+            final int cells = getVarint();
+            if (cells < 1 || cells > size * size) {
+                throw new IOException("invalid cage cell count " + cells + " for " + size + "x" + size);
+            }
+            final int[] rowsCols = new int[cells * 2];
+            for (int i = 0; i < rowsCols.length; i += 2) {
+                final int cell = wideCells ? buffer.getShort() & 0xffff : buffer.get() & 0xff;
+                if (cell >= size * size) {
+                    throw new IOException("cell " + cell + " outside " + size + "x" + size);
+                }
+                rowsCols[i] = cell / size;
+                rowsCols[i + 1] = cell % size;
+            }
+            try {
+                cages[c] = new Puzzle.Cage(target, OPERATORS[operator], rowsCols);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid cage: " + e.getMessage(), e);
+            }
+        }
+        final Puzzle.Builder builder = new Puzzle.Builder(size);
+        for (Puzzle.Cage cage : cages) {
+            builder.addCage(cage);
+        }
+        try {
+            return builder.build();
+        } catch (IllegalStateException e) {
+            throw new IOException("invalid puzzle: " + e.getMessage(), e);
+        }
+    }
+
+    private int getVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private long getVarlong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Makes more bytes available after the unread ones
+     * @return false if there are no more bytes
+     */
+    private boolean fill() throws IOException {
+        if (mapped != null) {
+            if (bufferStart + buffer.limit() >= mapped.size()) {
+                return false;
+            }
+            if (buffer.position() == 0) {
+                // a single record larger than the window
+                if (window > Integer.MAX_VALUE / 2) {
+                    throw new IOException("puzzle record larger than " + window + " bytes");
+                }
+                window *= 2;
+            }
+            bufferStart += buffer.position();
+            buffer = map(bufferStart);
+            return true;
+        }
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            // a single record larger than the buffer
+            buffer.flip();
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+        }
+        final int read = channel.read(buffer);
+        buffer.flip();
+        return read > 0;
+    }
+
+    private MappedByteBuffer map(long position) throws IOException {
+        final long length = Math.min(window, mapped.size() - position);
+        return mapped.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,110 @@
+package org.atxsm.kenken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes puzzles to a channel in the compact binary format read by
+ * {@link PuzzleReader}.
+ * <p>
+ * A stream starts with the magic bytes <code>KKP</code> and a version byte,
+ * followed by one record per puzzle:
+ * <ul>
+ *     <li>size, as a varint</li>
+ *     <li>number of cages, as a varint</li>
+ *     <li>for each cage: the operator ordinal as one byte, the target as a
+ *         zigzag varint of up to 64 bits, the number of cells as a varint
+ *         and the index <code>row * size + col</code> of each cell as one
+ *         byte, or two bytes big-endian when the grid has more than 256
+ *         cells</li>
+ * </ul>
+ */
+public class PuzzleWriter implements Closeable {
+    static final byte[] MAGIC = {'K', 'K', 'P'};
+    static final byte VERSION = 1;
+    /** bytes buffered before writing to the channel */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+
+    public PuzzleWriter(WritableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    PuzzleWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        buffer.put(MAGIC).put(VERSION);
+    }
+
+    public PuzzleWriter write(Puzzle puzzle) throws IOException {
+        while (true) {
+            final int start = buffer.position();
+            try {
+                encode(puzzle);
+                return this;
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                if (start == 0) {
+                    // a single record larger than the buffer
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                } else {
+                    flush();
+                }
+            }
+        }
+    }
+
+    private void encode(Puzzle puzzle) {
+        final int size = puzzle.getSize();
+        final boolean wideCells = size * size > 256;
+        putVarint(size);
+        putVarint(puzzle.getCages().size());
+        for (Puzzle.Cage cage : puzzle.getCages()) {
+            buffer.put((byte) cage.operator.ordinal());
+            putVarlong((cage.target << 1) ^ (cage.target >> 63));
+            putVarint(cage.rowsCols.length / 2);
+            for (int i = 0; i < cage.rowsCols.length; i += 2) {
+                final int cell = cage.rowsCols[i] * size + cage.rowsCols[i + 1];
+                if (wideCells) {
+                    buffer.putShort((short) cell);
+                } else {
+                    buffer.put((byte) cell);
+                }
+            }
+        }
+    }
+
+    private void putVarint(int value) {
+        putVarlong(value & 0xffffffffL);
+    }
+
+    private void putVarlong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes out buffered records
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,520 @@
+package org.atxsm.kenken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Conflict-driven clause learning over clauses of DIMACS literals.
+ * <p>
+ * Two watched literals per clause, each watch kept with another literal
+ * of the clause that, while it holds, saves looking at the clause;
+ * first-UIP conflict analysis with the learned clause shortened by the
+ * reasons of its literals, non-chronological backjumping, variable
+ * activities (VSIDS) with saved phases, restarts after a Luby sequence of
+ * conflicts and, once the learned clauses outnumber a limit that grows
+ * with each reduction, dropping the less active half of them.
+ * <p>
+ * Literals are stored as <code>2 * variable</code> when true and
+ * <code>2 * variable + 1</code> when false, so that
+ * <code>literal ^ 1</code> is the negation. A SatSolver is not thread
+ * safe.
+ */
+final class SatSolver {
+    /** conflicts between restarts, times the Luby sequence */
+    static final int RESTART_CONFLICTS = 100;
+
+    private static final double VARIABLE_DECAY = 1 / 0.95;
+    private static final double CLAUSE_DECAY = 1 / 0.999;
+
+    private final int variables;
+    private boolean ok = true;
+    private final List<Clause> clauses = new ArrayList<Clause>();
+    private final List<Clause> learned = new ArrayList<Clause>();
+    private double maxLearned;
+    private final Clause[][] watches; // clauses watching each literal, looked at when it becomes false
+    private final int[][] blockers;   // a literal of each watching clause
+    private final int[] watchSizes;
+
+    // assignment: 1 true, -1 false, 0 unknown, by variable
+    private final byte[] values;
+    private final byte[] phases;
+    private final int[] levels;
+    private final Clause[] reasons;
+    private final int[] trail;
+    private int trailSize;
+    private int propagated;
+    private int[] levelStarts = new int[16];
+    private int level;
+
+    // variable order: a heap on activity
+    private final double[] activities;
+    private double variableBump = 1;
+    private double clauseBump = 1;
+    private final int[] heap;
+    private final int[] heapPositions; // -1 when not in the heap
+    private int heapSize;
+
+    private final boolean[] seen;
+    private final int[] learnedLiterals;
+    private long conflicts;
+
+    SatSolver(int variables) {
+        this.variables = variables;
+        this.watches = new Clause[2 * (variables + 1)][];
+        this.blockers = new int[watches.length][];
+        this.watchSizes = new int[watches.length];
+        this.values = new byte[variables + 1];
+        this.phases = new byte[variables + 1];
+        Arrays.fill(phases, (byte) -1);
+        this.levels = new int[variables + 1];
+        this.reasons = new Clause[variables + 1];
+        this.trail = new int[variables];
+        this.activities = new double[variables + 1];
+        this.heap = new int[variables];
+        this.heapPositions = new int[variables + 1];
+        for (int variable = 1; variable <= variables; variable++) {
+            heapPositions[variable] = heapSize;
+            heap[heapSize++] = variable;
+        }
+        this.seen = new boolean[variables + 1];
+        this.learnedLiterals = new int[variables];
+    }
+
+    /**
+     * Adds a clause before solving
+     * @param dimacs variables, negated when false
+     * @return false if the clauses are already contradictory
+     */
+    boolean addClause(int... dimacs) {
+        if (level > 0) {
+            throw new IllegalStateException("clauses are added before solving");
+        }
+        if (!ok) {
+            return false;
+        }
+        final int[] literals = new int[dimacs.length];
+        int length = 0;
+        for (int d : dimacs) {
+            if (d == 0 || Math.abs(d) > variables) {
+                throw new IllegalArgumentException("no variable " + d);
+            }
+            final int literal = d > 0 ? 2 * d : -2 * d + 1;
+            final int value = literalValue(literal);
+            if (value > 0) {
+                return true; // already satisfied
+            }
+            boolean repeated = false;
+            for (int k = 0; k < length; k++) {
+                if (literals[k] == (literal ^ 1)) {
+                    return true; // always satisfied
+                }
+                repeated |= literals[k] == literal;
+            }
+            if (value == 0 && !repeated) {
+                literals[length++] = literal;
+            }
+        }
+        if (length == 0) {
+            ok = false;
+        } else if (length == 1) {
+            assign(literals[0], null);
+            ok = propagate() == null;
+        } else {
+            final Clause clause = new Clause(Arrays.copyOf(literals, length), false);
+            clauses.add(clause);
+            watch(clause);
+        }
+        return ok;
+    }
+
+    /**
+     * @return true if all clauses can hold together, with the values that
+     *         make them hold in {@link #value(int)}
+     */
+    boolean solve() {
+        if (!ok) {
+            return false;
+        }
+        maxLearned = Math.max(1000, clauses.size() / 3.0);
+        int restarts = 0;
+        long restartConflicts = RESTART_CONFLICTS * Solver.luby(1);
+        while (true) {
+            final Clause conflict = propagate();
+            if (conflict != null) {
+                conflicts++;
+                restartConflicts--;
+                if (level == 0) {
+                    ok = false;
+                    return false;
+                }
+                learn(conflict);
+                variableBump *= VARIABLE_DECAY;
+                clauseBump *= CLAUSE_DECAY;
+                continue;
+            }
+            if (restartConflicts <= 0) {
+                backjump(0);
+                restarts++;
+                restartConflicts = RESTART_CONFLICTS * Solver.luby(restarts + 1);
+            }
+            if (learned.size() - trailSize >= maxLearned) {
+                reduceLearned();
+                maxLearned *= 1.1;
+            }
+            final int variable = nextVariable();
+            if (variable == 0) {
+                return true;
+            }
+            if (level == levelStarts.length) {
+                levelStarts = Arrays.copyOf(levelStarts, level * 2);
+            }
+            levelStarts[level++] = trailSize;
+            assign(2 * variable + (phases[variable] > 0 ? 0 : 1), null);
+        }
+    }
+
+    /**
+     * @return the value of variable in the model found by {@link #solve()}
+     */
+    boolean value(int variable) {
+        return values[variable] > 0;
+    }
+
+    long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return 1 if literal holds, -1 if it does not, 0 if unknown
+     */
+    private int literalValue(int literal) {
+        final int value = values[literal >> 1];
+        return (literal & 1) == 0 ? value : -value;
+    }
+
+    private void assign(int literal, Clause reason) {
+        final int variable = literal >> 1;
+        values[variable] = (byte) ((literal & 1) == 0 ? 1 : -1);
+        levels[variable] = level;
+        reasons[variable] = reason;
+        trail[trailSize++] = literal;
+    }
+
+    /**
+     * Assigns the literals that clauses imply until none are left
+     * @return a clause whose literals all fail, or null
+     */
+    private Clause propagate() {
+        while (propagated < trailSize) {
+            final int falsified = trail[propagated++] ^ 1;
+            final Clause[] watching = watches[falsified];
+            final int[] blocking = blockers[falsified];
+            final int count = watchSizes[falsified];
+            int kept = 0;
+            int i = 0;
+            while (i < count) {
+                if (literalValue(blocking[i]) > 0) {
+                    watching[kept] = watching[i];
+                    blocking[kept++] = blocking[i++];
+                    continue;
+                }
+                final Clause clause = watching[i++];
+                final int[] literals = clause.literals;
+                if (literals[0] == falsified) {
+                    literals[0] = literals[1];
+                    literals[1] = falsified;
+                }
+                if (literalValue(literals[0]) > 0) {
+                    watching[kept] = clause;
+                    blocking[kept++] = literals[0];
+                    continue;
+                }
+                boolean moved = false;
+                for (int k = 2; k < literals.length; k++) {
+                    if (literalValue(literals[k]) >= 0) {
+                        literals[1] = literals[k];
+                        literals[k] = falsified;
+                        watch(literals[1], clause);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved) {
+                    continue;
+                }
+                watching[kept] = clause;
+                blocking[kept++] = literals[0];
+                if (literalValue(literals[0]) < 0) {
+                    while (i < count) {
+                        watching[kept] = watching[i];
+                        blocking[kept++] = blocking[i++];
+                    }
+                    watchSizes[falsified] = kept;
+                    propagated = trailSize;
+                    return clause;
+                }
+                assign(literals[0], clause);
+            }
+            watchSizes[falsified] = kept;
+        }
+        return null;
+    }
+
+    /**
+     * Learns the first-UIP clause of conflict, backjumps to the level it
+     * becomes unit at and assigns its literal there
+     */
+    private void learn(Clause conflict) {
+        int length = 1; // learnedLiterals[0] is the UIP
+        int pending = 0; // literals of the current level still to resolve
+        int literal = -1;
+        int index = trailSize - 1;
+        Clause clause = conflict;
+        do {
+            if (clause.learned) {
+                bump(clause);
+            }
+            final int[] literals = clause.literals;
+            for (int k = literal == -1 ? 0 : 1; k < literals.length; k++) {
+                final int variable = literals[k] >> 1;
+                if (!seen[variable] && levels[variable] > 0) {
+                    bump(variable);
+                    seen[variable] = true;
+                    if (levels[variable] >= level) {
+                        pending++;
+                    } else {
+                        learnedLiterals[length++] = literals[k];
+                    }
+                }
+            }
+            while (!seen[trail[index] >> 1]) {
+                index--;
+            }
+            literal = trail[index--];
+            clause = reasons[literal >> 1];
+            seen[literal >> 1] = false;
+            pending--;
+        } while (pending > 0);
+        learnedLiterals[0] = literal ^ 1;
+
+        // move literals implied by the others past the end, keeping them
+        // to clear their marks
+        int kept = 1;
+        for (int k = 1; k < length; k++) {
+            if (!implied(learnedLiterals[k])) {
+                final int swap = learnedLiterals[kept];
+                learnedLiterals[kept++] = learnedLiterals[k];
+                learnedLiterals[k] = swap;
+            }
+        }
+        for (int k = 1; k < length; k++) {
+            seen[learnedLiterals[k] >> 1] = false;
+        }
+        // the literal of the highest level after the UIP is watched second
+        int backjumpLevel = 0;
+        for (int k = 1; k < kept; k++) {
+            if (levels[learnedLiterals[k] >> 1] > backjumpLevel) {
+                backjumpLevel = levels[learnedLiterals[k] >> 1];
+                final int swap = learnedLiterals[1];
+                learnedLiterals[1] = learnedLiterals[k];
+                learnedLiterals[k] = swap;
+            }
+        }
+        backjump(backjumpLevel);
+        if (kept == 1) {
+            assign(learnedLiterals[0], null);
+        } else {
+            final Clause learnt = new Clause(Arrays.copyOf(learnedLiterals, kept), true);
+            learned.add(learnt);
+            watch(learnt);
+            bump(learnt);
+            assign(learnedLiterals[0], learnt);
+        }
+    }
+
+    /**
+     * @return true if every other literal of the reason for literal's
+     *         variable is in the learned clause or fixed at level 0
+     */
+    private boolean implied(int literal) {
+        final Clause reason = reasons[literal >> 1];
+        if (reason == null) {
+            return false;
+        }
+        for (int k = 1; k < reason.literals.length; k++) {
+            final int variable = reason.literals[k] >> 1;
+            if (!seen[variable] && levels[variable] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Undoes the assignments of the levels above target, saving their phases
+     */
+    private void backjump(int target) {
+        if (level <= target) {
+            return;
+        }
+        for (int k = trailSize - 1; k >= levelStarts[target]; k--) {
+            final int variable = trail[k] >> 1;
+            phases[variable] = values[variable];
+            values[variable] = 0;
+            reasons[variable] = null;
+            if (heapPositions[variable] < 0) {
+                heapInsert(variable);
+            }
+        }
+        trailSize = levelStarts[target];
+        propagated = trailSize;
+        level = target;
+    }
+
+    /**
+     * @return the unknown variable of highest activity, or 0 if none is left
+     */
+    private int nextVariable() {
+        while (heapSize > 0) {
+            final int variable = heapRemoveTop();
+            if (values[variable] == 0) {
+                return variable;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Drops the less active half of the learned clauses, keeping the ones
+     * that are the reasons of current assignments
+     */
+    private void reduceLearned() {
+        final List<Clause> sorted = new ArrayList<Clause>(learned);
+        sorted.sort(new Comparator<Clause>() {
+            @Override
+            public int compare(Clause a, Clause b) {
+                return Double.compare(a.activity, b.activity);
+            }
+        });
+        learned.clear();
+        for (int k = 0; k < sorted.size(); k++) {
+            final Clause clause = sorted.get(k);
+            final int first = clause.literals[0] >> 1;
+            final boolean locked = reasons[first] == clause && literalValue(clause.literals[0]) > 0;
+            if (k >= sorted.size() / 2 || locked || clause.literals.length == 2) {
+                learned.add(clause);
+            }
+        }
+        Arrays.fill(watchSizes, 0);
+        for (Clause clause : clauses) {
+            watch(clause);
+        }
+        for (Clause clause : learned) {
+            watch(clause);
+        }
+    }
+
+    private void watch(Clause clause) {
+        watch(clause.literals[0], clause);
+        watch(clause.literals[1], clause);
+    }
+
+    private void watch(int literal, Clause clause) {
+        if (watches[literal] == null) {
+            watches[literal] = new Clause[4];
+            blockers[literal] = new int[4];
+        } else if (watchSizes[literal] == watches[literal].length) {
+            watches[literal] = Arrays.copyOf(watches[literal], watchSizes[literal] * 2);
+            blockers[literal] = Arrays.copyOf(blockers[literal], watchSizes[literal] * 2);
+        }
+        watches[literal][watchSizes[literal]] = clause;
+        blockers[literal][watchSizes[literal]++] = clause.literals[literal == clause.literals[0] ? 1 : 0];
+    }
+
+    private void bump(int variable) {
+        activities[variable] += variableBump;
+        if (activities[variable] > 1e100) {
+            for (int v = 1; v <= variables; v++) {
+                activities[v] *= 1e-100;
+            }
+            variableBump *= 1e-100;
+        }
+        if (heapPositions[variable] >= 0) {
+            heapUp(heapPositions[variable]);
+        }
+    }
+
+    private void bump(Clause clause) {
+        clause.activity += clauseBump;
+        if (clause.activity > 1e20) {
+            for (Clause c : learned) {
+                c.activity *= 1e-20;
+            }
+            clauseBump *= 1e-20;
+        }
+    }
+
+    private void heapInsert(int variable) {
+        heapPositions[variable] = heapSize;
+        heap[heapSize++] = variable;
+        heapUp(heapSize - 1);
+    }
+
+    private int heapRemoveTop() {
+        final int top = heap[0];
+        heapPositions[top] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPositions[heap[0]] = 0;
+            heapDown(0);
+        }
+        return top;
+    }
+
+    private void heapUp(int position) {
+        final int variable = heap[position];
+        while (position > 0) {
+            final int parent = (position - 1) / 2;
+            if (activities[heap[parent]] >= activities[variable]) {
+                break;
+            }
+            heap[position] = heap[parent];
+            heapPositions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = variable;
+        heapPositions[variable] = position;
+    }
+
+    private void heapDown(int position) {
+        final int variable = heap[position];
+        while (2 * position + 1 < heapSize) {
+            int child = 2 * position + 1;
+            if (child + 1 < heapSize && activities[heap[child + 1]] > activities[heap[child]]) {
+                child++;
+            }
+            if (activities[heap[child]] <= activities[variable]) {
+                break;
+            }
+            heap[position] = heap[child];
+            heapPositions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = variable;
+        heapPositions[variable] = position;
+    }
+
+    private static final class Clause {
+        final int[] literals; // the two watched literals first
+        final boolean learned;
+        double activity;
+
+        Clause(int[] literals, boolean learned) {
+            this.literals = literals;
+            this.learned = learned;
+        }
+    }
+}
@@ -7,35 +7,113 @@ import java.util.Set;
 /**
  * A KenKen solution consists of an NxN grid of cells.
  * Each cell has an integer value between 1..N.
+ * <p>
+ * Cells are stored in flat arrays indexed by <code>row * size + col</code>.
+ * The candidates for a cell are kept as a bitmask where bit <code>k</code>
+ * stands for the value <code>k + 1</code>, so N may be at most 64.
+ *
  * User: Cheng Leong
  * Date: 4/29/12
  * Time: 12:05 AM
  */
-public class Solution {
+public class Solution implements SolutionView {
+    static final int MAX_SIZE = Long.SIZE;
+
     final private int size;
-    final private Integer values[][];
-    final private boolean impossibles[][][];
+    final private int values[];   // 0 when unknown
+    final private long masks[];   // candidate values, bit k for value k+1
+    private int emptyCells;       // cells with no candidates left
+    final private int pending[];  // newly set cells still to eliminate from their row and column
+    private int pendingSize;
+
+    // previous mask and value of each changed cell, most recent last
+    private int trailIndexes[];
+    private long trailMasks[];
+    private int trailValues[];
+    private int trailSize;
+
+    // candidates removed since construction, never undone
+    private long eliminations;
+    private long uniquenessEliminations; // the part removed by eliminatePending
+    private long uniquenessPasses;
 
     public Solution(int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_SIZE);
+        }
         this.size = size;
-        values = new Integer[size][size];
-        impossibles = new boolean[size][size][size];
+        values = new int[size * size];
+        masks = new long[size * size];
+        Arrays.fill(masks, fullMask(size));
+        pending = new int[size * size];
+        trailIndexes = new int[size * size];
+        trailMasks = new long[size * size];
+        trailValues = new int[size * size];
+    }
+
+    /**
+     * @param values complete grid, row by row
+     */
+    Solution(int size, int[] values) {
+        this(size);
+        for (int index = 0; index < values.length; index++) {
+            this.values[index] = values[index];
+            masks[index] = bit(values[index]);
+        }
+    }
+
+    /**
+     * Copies the values and candidates of other, but not its trail
+     */
+    Solution(Solution other) {
+        this.size = other.size;
+        values = other.values.clone();
+        masks = other.masks.clone();
+        emptyCells = other.emptyCells;
+        pending = new int[size * size];
+        trailIndexes = new int[size * size];
+        trailMasks = new long[size * size];
+        trailValues = new int[size * size];
+    }
+
+    /**
+     * @return mask with a bit set for each value 1..size
+     */
+    static long fullMask(int size) {
+        return size == Long.SIZE ? -1L : (1L << size) - 1;
+    }
+
+    /**
+     * @return mask with only the bit for value set
+     */
+    static long bit(int value) {
+        return 1L << (value - 1);
+    }
+
+    /**
+     * @return lowest value in mask, or 0 for an empty mask
+     */
+    static int lowestValue(long mask) {
+        return mask == 0 ? 0 : Long.numberOfTrailingZeros(mask) + 1;
     }
 
     // for tests
     Solution setAll(Integer... vals) {
-        int row = 0;
-        int col = 0;
+        int index = 0;
         for (Integer val : vals) {
-            values[row][col++] = val;
-            if (col >= size) {
-                row++;
-                col = 0;
+            if (val != null) {
+                values[index] = val;
+                masks[index] = bit(val);
             }
+            index++;
         }
         return this;
     }
 
+    public int getSize() {
+        return size;
+    }
+
     /**
      * @return true if value modified; false if unchanged
      */
@@ -46,97 +124,220 @@ public class Solution {
         if (value < 1 || value > size) {
             throw new IllegalArgumentException("value must be between 1 and " + size);
         }
-        if (value.equals(values[row][col])) {
+        final int index = index(row, col);
+        if (values[index] == value) {
             return false;
         }
-        if (values[row][col] != null) {
+        if (values[index] != 0) {
             throw new IllegalStateException("value can only be set once");
         }
-        values[row][col] = value;
-        for (int i = 0; i < size; i++) {
-            if (i != row) {
-                markImpossible(i, col, value);
-            }
-        }
-        for (int j = 0; j < size; j++) {
-            if (j != row) {
-                markImpossible(row, j, value);
-            }
-        }
-        for (int k = 0; k < size; k++) {
-            if (k+1 != value) {
-                markImpossible(row, col, k+1);
-            }
-        }
+        narrow(index, bit(value));
+        eliminatePending();
         return true;
     }
-    
+
     /**
      * @return true if this is a new fact; false if unchanged
      */
     boolean markImpossible(int row, int col, int value) {
-        if (impossibles[row][col][value - 1]) {
+        return restrict(row, col, ~bit(value));
+    }
+
+    /**
+     * Removes every candidate at row, col that is not in mask
+     * @return true if candidates were removed; false if unchanged
+     */
+    boolean restrict(int row, int col, long mask) {
+        final boolean modified = narrow(index(row, col), mask);
+        eliminatePending();
+        return modified;
+    }
+
+    /**
+     * Intersects the candidates at index with mask, setting the value
+     * if only one candidate remains. Newly set cells are queued for
+     * {@link #eliminatePending()} rather than handled recursively.
+     */
+    private boolean narrow(int index, long mask) {
+        final long candidates = masks[index];
+        final long remaining = candidates & mask;
+        final boolean forced = values[index] == 0 && Long.bitCount(remaining) == 1;
+        if (remaining == candidates && !forced) {
             return false;
         }
-        impossibles[row][col][value - 1] = true;
-        Integer possibleValue = findSinglePossibility(row, col);
-        if (possibleValue != null) {
-            set(row, col, possibleValue);
+        change(index, remaining, forced ? lowestValue(remaining) : values[index]);
+        if (forced) {
+            pending[pendingSize++] = index;
         }
         return true;
     }
 
     /**
-     * @return only possible value or null if multiple values are possible
+     * Removes the value of each newly set cell from the other cells
+     * in its row and column, until no newly set cells remain
      */
-    private Integer findSinglePossibility(int row, int col) {
-        Integer possible = null;
-        for (int k = 0; k < size; k++) {
-            if (!impossibles[row][col][k]) {
-                if (possible != null) {
-                    return null; // multiple possibilities
+    private void eliminatePending() {
+        final long before = eliminations;
+        while (pendingSize > 0 && emptyCells == 0) {
+            final int index = pending[--pendingSize];
+            uniquenessPasses++;
+            final long others = ~bit(values[index]);
+            final int row = index / size;
+            final int col = index % size;
+            for (int i = col; i < values.length; i += size) {
+                if (i != index) {
+                    narrow(i, others);
+                }
+            }
+            for (int j = row * size; j < (row + 1) * size; j++) {
+                if (j != index) {
+                    narrow(j, others);
                 }
-                possible = k + 1;
             }
         }
-        return possible;
+        pendingSize = 0; // nothing more to learn after a contradiction
+        uniquenessEliminations += eliminations - before;
+    }
+
+    /**
+     * @return number of candidates removed since construction,
+     *         including ones later restored by {@link #undo(int)}
+     */
+    long getEliminations() {
+        return eliminations;
+    }
+
+    /**
+     * @return the part of {@link #getEliminations()} removed because a
+     *         cell in the same row or column was set
+     */
+    long getUniquenessEliminations() {
+        return uniquenessEliminations;
+    }
+
+    /**
+     * @return number of set cells whose value was removed from their row and column
+     */
+    long getUniquenessPasses() {
+        return uniquenessPasses;
+    }
+
+    /**
+     * @return true if some cell has no possible values left
+     */
+    public boolean hasContradiction() {
+        return emptyCells > 0;
+    }
+
+    /**
+     * @return position in the trail to pass to {@link #undo(int)}
+     */
+    int mark() {
+        return trailSize;
+    }
+
+    /**
+     * @return index (row * size + col) of the cell changed at trail position
+     */
+    int changedCell(int position) {
+        return trailIndexes[position];
+    }
+
+    /**
+     * Reverts every change made since mark was taken
+     */
+    void undo(int mark) {
+        while (trailSize > mark) {
+            trailSize--;
+            final int index = trailIndexes[trailSize];
+            if (masks[index] == 0) {
+                emptyCells--;
+            }
+            masks[index] = trailMasks[trailSize];
+            values[index] = trailValues[trailSize];
+        }
+    }
+
+    private void change(int index, long mask, int value) {
+        if (trailSize == trailIndexes.length) {
+            final int capacity = trailSize * 2;
+            trailIndexes = Arrays.copyOf(trailIndexes, capacity);
+            trailMasks = Arrays.copyOf(trailMasks, capacity);
+            trailValues = Arrays.copyOf(trailValues, capacity);
+        }
+        trailIndexes[trailSize] = index;
+        trailMasks[trailSize] = masks[index];
+        trailValues[trailSize] = values[index];
+        trailSize++;
+        if (mask == 0) {
+            emptyCells++;
+        }
+        eliminations += Long.bitCount(masks[index]) - Long.bitCount(mask);
+        masks[index] = mask;
+        values[index] = value;
+    }
+
+    /**
+     * @return bitmask of values still possible at row, col
+     */
+    public long candidateMask(int row, int col) {
+        return masks[index(row, col)];
+    }
+
+    /**
+     * @return number of values still possible at row, col
+     */
+    public int candidateCount(int row, int col) {
+        return Long.bitCount(masks[index(row, col)]);
+    }
+
+    /**
+     * @return value at row, col or 0 if not yet known
+     */
+    public int valueOrZero(int row, int col) {
+        return values[index(row, col)];
     }
 
     Set<Integer> findPossibilities(int row, int col) {
         Set<Integer> possible = new HashSet<Integer>();
-        for (int k = 0; k < size; k++) {
-            if (!impossibles[row][col][k]) {
-                possible.add(k + 1);
-            }
+        for (long mask = candidateMask(row, col); mask != 0; mask &= mask - 1) {
+            possible.add(lowestValue(mask));
         }
         return possible;
     }
 
     public Integer get(int row, int col) {
-        return values[row][col];
+        final int value = valueOrZero(row, col);
+        return value == 0 ? null : value;
     }
 
     public boolean isComplete() {
-        for (Integer[] row : values) {
-            for (Integer value : row) {
-                if (value == null) {
-                    return false;
-                }
+        for (int value : values) {
+            if (value == 0) {
+                return false;
             }
         }
         return true;
     }
 
+    private int index(int row, int col) {
+        if (row < 0 || row >= size || col < 0 || col >= size) {
+            throw new ArrayIndexOutOfBoundsException("(" + row + "," + col + ") is outside " + size + "x" + size);
+        }
+        return row * size + col;
+    }
+
     @Override
     public boolean equals(Object o) {
         return this == o
                 || !(o == null || getClass() != o.getClass())
-                && Arrays.deepEquals(this.values, ((Solution) o).values);
+                && size == ((Solution) o).size
+                && Arrays.equals(this.values, ((Solution) o).values);
     }
 
     @Override
     public int hashCode() {
-        return Arrays.deepHashCode(values);
+        return Arrays.hashCode(values);
     }
 
     @Override
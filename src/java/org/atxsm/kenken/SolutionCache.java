@@ -0,0 +1,79 @@
+package org.atxsm.kenken;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of solved grids in front of
+ * {@link Solver}. Puzzles are keyed by their canonical fingerprint, so a
+ * rotated or reflected copy of a cached puzzle is a hit; the stored grid
+ * is turned back to the caller's orientation.
+ * <p>
+ * Safe for concurrent use. Misses are solved outside the lock, so two
+ * threads missing on the same puzzle may both solve it. Hits and misses
+ * are also counted in the {@link SolverMetrics#installed() installed}
+ * metrics, if any.
+ */
+public class SolutionCache {
+    private static final int[] NO_SOLUTION = new int[0];
+
+    private final Map<PuzzleCanonicalizer.Fingerprint, int[]> grids;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SolutionCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.grids = new LinkedHashMap<PuzzleCanonicalizer.Fingerprint, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PuzzleCanonicalizer.Fingerprint, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return solution in the orientation of puzzle, or null if it has none
+     */
+    public Solution solve(Puzzle puzzle) {
+        final PuzzleCanonicalizer.Canonical canonical = PuzzleCanonicalizer.canonicalize(puzzle);
+        int[] grid;
+        synchronized (grids) {
+            grid = grids.get(canonical.getFingerprint());
+        }
+        final SolverMetrics metrics = SolverMetrics.installed();
+        if (grid != null) {
+            hits.incrementAndGet();
+            if (metrics != null) {
+                metrics.recordCacheHit();
+            }
+        } else {
+            misses.incrementAndGet();
+            if (metrics != null) {
+                metrics.recordCacheMiss();
+            }
+            final Solver solver = new Solver(puzzle);
+            grid = solver.solve() ? canonical.toCanonical(solver.getSolution()) : NO_SOLUTION;
+            synchronized (grids) {
+                grids.put(canonical.getFingerprint(), grid);
+            }
+        }
+        return grid == NO_SOLUTION ? null : canonical.fromCanonical(grid);
+    }
+
+    public int size() {
+        synchronized (grids) {
+            return grids.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
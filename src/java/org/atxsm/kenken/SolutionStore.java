@@ -0,0 +1,369 @@
+package org.atxsm.kenken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Archive of solved grids of one size, bit-packed outside the Java heap.
+ * <p>
+ * Each cell holds its value - 1 in the fewest bits that fit size - 1:
+ * 4 bits per cell up to 16x16, 5 up to 32x32, 6 up to 64x64. Each grid
+ * takes a whole number of bytes, so grid i starts at i times the record
+ * length. Records live in segments, either direct buffers of about
+ * {@value #DIRECT_SEGMENT_BYTES} bytes or windows of about
+ * {@value #SEGMENT_BYTES} bytes of a memory-mapped file, so a store may
+ * hold more than 2GB.
+ * <p>
+ * Grids are read back through {@link SolutionView} flyweights that decode
+ * cells straight from the buffer. A file starts with a header holding
+ * the magic bytes, version, grid size and grid count, and grows a whole
+ * segment at a time; the unused tail is sparse on most file systems.
+ * <p>
+ * A SolutionStore is not thread safe.
+ */
+public final class SolutionStore implements Iterable<SolutionView>, Closeable {
+    static final byte[] MAGIC = {'K', 'K', 'S'};
+    static final byte VERSION = 1;
+    static final int SEGMENT_BYTES = 1 << 28;
+    static final int DIRECT_SEGMENT_BYTES = 1 << 22;
+    private static final int HEADER_BYTES = 16; // magic, version, size, count
+
+    private final int size;
+    private final int bits;
+    private final int recordBytes;
+    private final int segmentRecords;
+    private final FileChannel file; // null for direct buffers
+    private final MappedByteBuffer header;
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private long count;
+
+    private SolutionStore(int size, FileChannel file, MappedByteBuffer header, long count, int segmentBytes) {
+        if (size < 1 || size > Solution.MAX_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + Solution.MAX_SIZE);
+        }
+        this.size = size;
+        this.bits = bitsPerCell(size);
+        this.recordBytes = (size * size * bits + 7) / 8;
+        this.segmentRecords = Math.max(1, segmentBytes / recordBytes);
+        this.file = file;
+        this.header = header;
+        this.count = count;
+    }
+
+    /**
+     * @return bits needed for the values 0..size-1
+     */
+    static int bitsPerCell(int size) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * @return an empty store in direct buffers
+     */
+    public static SolutionStore allocate(int size) {
+        return new SolutionStore(size, null, null, 0, DIRECT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Creates or replaces path with an empty memory-mapped store
+     */
+    public static SolutionStore create(Path path, int size) throws IOException {
+        return create(path, size, SEGMENT_BYTES);
+    }
+
+    static SolutionStore create(Path path, int size, int segmentBytes) throws IOException {
+        if (size < 1 || size > Solution.MAX_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + Solution.MAX_SIZE);
+        }
+        final FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            final MappedByteBuffer header = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.put(MAGIC).put(VERSION).putInt(size).putLong(0);
+            return new SolutionStore(size, file, header, 0, segmentBytes);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a store made by {@link #create(Path, int)}, to read or append to
+     */
+    public static SolutionStore open(Path path) throws IOException {
+        return open(path, SEGMENT_BYTES);
+    }
+
+    static SolutionStore open(Path path, int segmentBytes) throws IOException {
+        final FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (file.size() < HEADER_BYTES) {
+                throw new IOException("not a solution store: missing header");
+            }
+            final MappedByteBuffer header = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            final byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("not a solution store: bad magic");
+            }
+            if (header.get() != VERSION) {
+                throw new IOException("unsupported solution store version");
+            }
+            final int size = header.getInt();
+            final long count = header.getLong();
+            if (size < 1 || size > Solution.MAX_SIZE || count < 0) {
+                throw new IOException("corrupt solution store header");
+            }
+            final SolutionStore store = new SolutionStore(size, file, header, count, segmentBytes);
+            if (HEADER_BYTES + count * store.recordBytes > file.size()) {
+                throw new IOException("truncated solution store: " + count + " grids expected");
+            }
+            return store;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of grids stored
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return bytes taken by each grid
+     */
+    public int getRecordBytes() {
+        return recordBytes;
+    }
+
+    /**
+     * Packs the values of a complete grid onto the end of the store
+     * @return index of the grid
+     */
+    public long append(SolutionView solution) {
+        if (solution.getSize() != size) {
+            throw new IllegalArgumentException("grid is " + solution.getSize() + "x" + solution.getSize()
+                    + ", store is " + size + "x" + size);
+        }
+        final long index = count;
+        final ByteBuffer segment = segment(index);
+        int position = offset(index);
+        long pending = 0;
+        int pendingBits = 0;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                final int value = solution.valueOrZero(row, col);
+                if (value == 0) {
+                    throw new IllegalArgumentException("(" + row + "," + col + ") has no value");
+                }
+                pending |= (long) (value - 1) << pendingBits;
+                pendingBits += bits;
+                while (pendingBits >= 8) {
+                    segment.put(position++, (byte) pending);
+                    pending >>>= 8;
+                    pendingBits -= 8;
+                }
+            }
+        }
+        if (pendingBits > 0) {
+            segment.put(position, (byte) pending);
+        }
+        count++;
+        if (header != null) {
+            header.putLong(HEADER_BYTES - Long.SIZE / 8, count);
+        }
+        return index;
+    }
+
+    /**
+     * @return flyweight over grid index; reads go to the store, so it
+     *         stays valid as long as the store is open
+     */
+    public SolutionView get(long index) {
+        checkIndex(index);
+        final View view = new View();
+        view.moveTo(index);
+        return view;
+    }
+
+    /**
+     * @return value at row, col of grid index
+     */
+    public int valueOrZero(long index, int row, int col) {
+        checkIndex(index);
+        if (row < 0 || row >= size || col < 0 || col >= size) {
+            throw new ArrayIndexOutOfBoundsException("(" + row + "," + col + ") is outside " + size + "x" + size);
+        }
+        return value(segment(index), offset(index), row * size + col);
+    }
+
+    /**
+     * @return a heap copy of grid index
+     */
+    public Solution toSolution(long index) {
+        checkIndex(index);
+        final ByteBuffer segment = segment(index);
+        final int offset = offset(index);
+        final int[] values = new int[size * size];
+        for (int cell = 0; cell < values.length; cell++) {
+            values[cell] = value(segment, offset, cell);
+        }
+        return new Solution(size, values);
+    }
+
+    /**
+     * Iterates over every grid with one flyweight that moves along the
+     * store: each view returned by next() is only valid until the
+     * following call
+     */
+    @Override
+    public Iterator<SolutionView> iterator() {
+        return new Iterator<SolutionView>() {
+            private final View view = new View();
+            private long next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public SolutionView next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                view.moveTo(next++);
+                return view;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Flushes a mapped store to disk and releases the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+        header.force();
+        file.close();
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("grid " + index + " of " + count);
+        }
+    }
+
+    private int offset(long index) {
+        return (int) (index % segmentRecords) * recordBytes;
+    }
+
+    /**
+     * @return segment holding grid index, adding segments up to it if needed
+     */
+    private ByteBuffer segment(long index) {
+        final int number = (int) (index / segmentRecords);
+        while (segments.size() <= number) {
+            final int bytes = segmentRecords * recordBytes;
+            if (file == null) {
+                segments.add(ByteBuffer.allocateDirect(bytes));
+            } else {
+                try {
+                    segments.add(file.map(FileChannel.MapMode.READ_WRITE,
+                            HEADER_BYTES + (long) segments.size() * bytes, bytes));
+                } catch (IOException e) {
+                    throw new IllegalStateException("cannot map solution store segment " + segments.size(), e);
+                }
+            }
+        }
+        return segments.get(number);
+    }
+
+    /**
+     * @return value of cell in the record at offset
+     */
+    private int value(ByteBuffer segment, int offset, int cell) {
+        final int bit = cell * bits;
+        final int position = offset + bit / 8;
+        int word = segment.get(position) & 0xff;
+        if ((bit & 7) + bits > 8) {
+            word |= (segment.get(position + 1) & 0xff) << 8;
+        }
+        return ((word >>> (bit & 7)) & ((1 << bits) - 1)) + 1;
+    }
+
+    /**
+     * A grid in the store, decoded cell by cell on demand
+     */
+    private final class View implements SolutionView {
+        private ByteBuffer segment;
+        private int offset;
+
+        void moveTo(long index) {
+            segment = segment(index);
+            offset = offset(index);
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public int valueOrZero(int row, int col) {
+            if (row < 0 || row >= size || col < 0 || col >= size) {
+                throw new ArrayIndexOutOfBoundsException("(" + row + "," + col + ") is outside " + size + "x" + size);
+            }
+            return value(segment, offset, row * size + col);
+        }
+
+        @Override
+        public Integer get(int row, int col) {
+            return valueOrZero(row, col);
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true; // only complete grids are stored
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Solution{\n");
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    sb.append(valueOrZero(row, col)).append('\t');
+                }
+                sb.append('\n');
+            }
+            return sb.append('}').toString();
+        }
+    }
+}
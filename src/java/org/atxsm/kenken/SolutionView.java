@@ -0,0 +1,21 @@
+package org.atxsm.kenken;
+
+/**
+ * Read side of a {@link Solution}: the values of a grid, without the
+ * candidates and undo trail needed to find them.
+ */
+public interface SolutionView {
+    int getSize();
+
+    /**
+     * @return value at row, col or 0 if not yet known
+     */
+    int valueOrZero(int row, int col);
+
+    /**
+     * @return value at row, col or null if not yet known
+     */
+    Integer get(int row, int col);
+
+    boolean isComplete();
+}
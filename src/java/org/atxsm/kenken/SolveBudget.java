@@ -0,0 +1,94 @@
+package org.atxsm.kenken;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on one {@link Solver#solve(SolveBudget)}: time from the start of
+ * the solve, values tried by the search (nodes), and cage and line
+ * revisions by the deduction rules (propagations). A solve that runs out
+ * of any of them stops with {@link SolveResult.Status#BUDGET_EXCEEDED}.
+ * <p>
+ * Budgets are immutable and can be shared between threads and solves.
+ */
+public final class SolveBudget {
+    /** no limits at all */
+    public static final SolveBudget UNLIMITED = new Builder().build();
+
+    private final long timeoutNanos;
+    private final long maxNodes;
+    private final long maxPropagations;
+
+    private SolveBudget(long timeoutNanos, long maxNodes, long maxPropagations) {
+        this.timeoutNanos = timeoutNanos;
+        this.maxNodes = maxNodes;
+        this.maxPropagations = maxPropagations;
+    }
+
+    /**
+     * @return time allowed per solve in nanoseconds, Long.MAX_VALUE if unlimited
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @return values the search may try, Long.MAX_VALUE if unlimited
+     */
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @return cage and line revisions allowed, Long.MAX_VALUE if unlimited
+     */
+    public long getMaxPropagations() {
+        return maxPropagations;
+    }
+
+    boolean hasTimeout() {
+        return timeoutNanos != Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "SolveBudget{" +
+                "timeout=" + (hasTimeout() ? TimeUnit.NANOSECONDS.toMicros(timeoutNanos) + "us" : "none") +
+                ", maxNodes=" + (maxNodes == Long.MAX_VALUE ? "none" : maxNodes) +
+                ", maxPropagations=" + (maxPropagations == Long.MAX_VALUE ? "none" : maxPropagations) +
+                '}';
+    }
+
+    public static class Builder {
+        private long timeoutNanos = Long.MAX_VALUE;
+        private long maxNodes = Long.MAX_VALUE;
+        private long maxPropagations = Long.MAX_VALUE;
+
+        public Builder timeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout must not be negative");
+            }
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        public Builder maxNodes(long maxNodes) {
+            if (maxNodes < 0) {
+                throw new IllegalArgumentException("maxNodes must not be negative");
+            }
+            this.maxNodes = maxNodes;
+            return this;
+        }
+
+        public Builder maxPropagations(long maxPropagations) {
+            if (maxPropagations < 0) {
+                throw new IllegalArgumentException("maxPropagations must not be negative");
+            }
+            this.maxPropagations = maxPropagations;
+            return this;
+        }
+
+        public SolveBudget build() {
+            return new SolveBudget(timeoutNanos, maxNodes, maxPropagations);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package org.atxsm.kenken;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Solves a stream of puzzles of any length with flat memory.
+ * <p>
+ * A reader thread parses puzzles from a {@link PuzzleReader} into a
+ * bounded queue, worker threads take them off and solve each with its own
+ * {@link Solver}, and the calling thread writes the results out in input
+ * order. At most <code>capacity</code> puzzles are between being read and
+ * being written, counting results held back until the ones before them
+ * are done, so a slow puzzle stalls the reader rather than growing a
+ * buffer.
+ * <p>
+ * Each result is written as one line: the index of the puzzle from 0,
+ * its {@link SolveResult.Status} and, if solved, the values row by row,
+ * all separated by spaces.
+ */
+public class SolvePipeline {
+    private static final Task END = new Task(-1, null);
+
+    private final int workers;
+    private final int capacity;
+    private final long timeoutNanos;
+    private Consumer<Progress> listener;
+    private long reportNanos;
+
+    /**
+     * @param workers number of solving threads
+     * @param capacity most puzzles read but not yet written
+     * @param timeout time limit for each puzzle
+     */
+    public SolvePipeline(int workers, int capacity, long timeout, TimeUnit unit) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        this.workers = workers;
+        this.capacity = capacity;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Calls listener on the writing thread about every interval while
+     * running, and once more at the end
+     */
+    public SolvePipeline setProgressListener(Consumer<Progress> listener, long interval, TimeUnit unit) {
+        this.listener = listener;
+        this.reportNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Solves every puzzle of in and writes the results to out. Neither is
+     * closed; out is flushed.
+     * @return counters at the end of the run
+     * @throws IOException if in is malformed or out cannot be written
+     */
+    public Progress run(PuzzleReader in, Writer out) throws IOException {
+        final Run run = new Run(in);
+        final Thread[] threads = new Thread[workers + 1];
+        threads[0] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                run.read();
+            }
+        }, "kenken-reader");
+        for (int i = 1; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    run.solve();
+                }
+            }, "kenken-solver-" + i);
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            run.write(out);
+            return run.progress();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted writing results", e);
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Usage: <code>SolvePipeline [-workers n] [-capacity n] [-timeout ms]
+     * [input [output]]</code>. Input and output default to stdin and
+     * stdout, or are given as -. Progress goes to stderr every 10 seconds.
+     */
+    public static void main(String[] args) throws IOException {
+        int workers = Runtime.getRuntime().availableProcessors();
+        int capacity = 1024;
+        long timeoutMillis = 60000;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-") && args[i].length() > 1; i += 2) {
+            if ("-workers".equals(args[i])) {
+                workers = Integer.parseInt(args[i + 1]);
+            } else if ("-capacity".equals(args[i])) {
+                capacity = Integer.parseInt(args[i + 1]);
+            } else if ("-timeout".equals(args[i])) {
+                timeoutMillis = Long.parseLong(args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        final String input = i < args.length ? args[i] : "-";
+        final String output = i + 1 < args.length ? args[i + 1] : "-";
+        final PuzzleReader in = "-".equals(input)
+                ? new PuzzleReader(Channels.newChannel(System.in))
+                : PuzzleReader.map(Paths.get(input));
+        final WritableByteChannel channel = "-".equals(output)
+                ? Channels.newChannel(System.out)
+                : FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (Writer out = Channels.newWriter(channel, StandardCharsets.US_ASCII.newEncoder(), 1 << 16)) {
+            new SolvePipeline(workers, capacity, timeoutMillis, TimeUnit.MILLISECONDS)
+                    .setProgressListener(new Consumer<Progress>() {
+                        @Override
+                        public void accept(Progress progress) {
+                            System.err.println(progress);
+                        }
+                    }, 10, TimeUnit.SECONDS)
+                    .run(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    static void writeLine(Writer out, SolveResult result) throws IOException {
+        out.write(Integer.toString(result.getIndex()));
+        out.write(' ');
+        out.write(result.getStatus().name());
+        if (result.getStatus() == SolveResult.Status.SOLVED) {
+            final Solution solution = result.getSolution();
+            for (int row = 0; row < solution.getSize(); row++) {
+                for (int col = 0; col < solution.getSize(); col++) {
+                    out.write(' ');
+                    out.write(Integer.toString(solution.valueOrZero(row, col)));
+                }
+            }
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Counters of a run so far
+     */
+    public static final class Progress {
+        private final long read;
+        private final long solved;
+        private final long written;
+        private final int queued;
+        private final int held;
+        private final long elapsedNanos;
+
+        Progress(long read, long solved, long written, int queued, int held, long elapsedNanos) {
+            this.read = read;
+            this.solved = solved;
+            this.written = written;
+            this.queued = queued;
+            this.held = held;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRead() {
+            return read;
+        }
+
+        /**
+         * @return puzzles the workers have finished with, whatever the outcome
+         */
+        public long getSolved() {
+            return solved;
+        }
+
+        public long getWritten() {
+            return written;
+        }
+
+        /**
+         * @return puzzles read and waiting for a worker
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * @return results done but waiting for an earlier puzzle to be written
+         */
+        public int getHeld() {
+            return held;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return puzzles written per second since the start
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : written * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("read=%d, solved=%d, written=%d, queued=%d, held=%d, %.1f puzzles/s",
+                    read, solved, written, queued, held, getThroughput());
+        }
+    }
+
+    private static final class Task {
+        final int index;
+        final Puzzle puzzle;
+
+        Task(int index, Puzzle puzzle) {
+            this.index = index;
+            this.puzzle = puzzle;
+        }
+    }
+
+    /**
+     * State shared by the threads of one run
+     */
+    private class Run {
+        private final PuzzleReader in;
+        private final long start = System.nanoTime();
+        private final Semaphore slots = new Semaphore(capacity);
+        private final BlockingQueue<Task> tasks = new ArrayBlockingQueue<Task>(capacity + workers);
+        private final BlockingQueue<SolveResult> results = new ArrayBlockingQueue<SolveResult>(capacity);
+        private final Map<Integer, SolveResult> held = new HashMap<Integer, SolveResult>();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicLong solved = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private volatile boolean finished; // reader saw the end of the input
+        private long written;
+
+        Run(PuzzleReader in) {
+            this.in = in;
+        }
+
+        void read() {
+            try {
+                int index = 0;
+                for (Puzzle puzzle = in.read(); puzzle != null; puzzle = in.read()) {
+                    slots.acquire();
+                    read.incrementAndGet();
+                    tasks.put(new Task(index++, puzzle));
+                }
+                finished = true;
+                for (int i = 0; i < workers; i++) {
+                    tasks.put(END);
+                }
+            } catch (InterruptedException e) {
+                // the run is over
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+
+        void solve() {
+            try {
+                for (Task task = tasks.take(); task != END; task = tasks.take()) {
+                    started.incrementAndGet();
+                    final SolveResult result = BatchSolver.solve(task.index, task.puzzle, timeoutNanos);
+                    solved.incrementAndGet();
+                    results.put(result);
+                }
+            } catch (InterruptedException e) {
+                // the run is over
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+
+        void write(Writer out) throws IOException, InterruptedException {
+            final long pollMillis = listener == null ? 100 : Math.max(1, Math.min(100,
+                    TimeUnit.NANOSECONDS.toMillis(reportNanos)));
+            long nextReport = System.nanoTime() + reportNanos;
+            while (!finished || written < read.get()) {
+                final Throwable t = failure.get();
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                } else if (t != null) {
+                    throw new IllegalStateException("solve pipeline failed", t);
+                }
+                final SolveResult result = results.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    held.put(result.getIndex(), result);
+                    for (SolveResult next = held.remove((int) written); next != null;
+                         next = held.remove((int) written)) {
+                        writeLine(out, next);
+                        written++;
+                        slots.release();
+                    }
+                }
+                if (listener != null && System.nanoTime() >= nextReport) {
+                    out.flush();
+                    listener.accept(progress());
+                    nextReport = System.nanoTime() + reportNanos;
+                }
+            }
+            out.flush();
+            if (listener != null) {
+                listener.accept(progress());
+            }
+        }
+
+        /**
+         * Each counter is bumped before its item is handed on, and read
+         * here after the counters downstream of it, so they never cross
+         */
+        Progress progress() {
+            final long solvedNow = solved.get();
+            final long startedNow = started.get();
+            final long readNow = read.get();
+            return new Progress(readNow, solvedNow, written, (int) (readNow - startedNow), held.size(),
+                    System.nanoTime() - start);
+        }
+    }
+}
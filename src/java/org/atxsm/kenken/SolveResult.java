@@ -0,0 +1,75 @@
+package org.atxsm.kenken;
+
+/**
+ * Outcome of solving one puzzle of a batch, or of one
+ * {@link Solver#solve(SolveBudget)}.
+ */
+public class SolveResult {
+    public enum Status {
+        /** every value found */
+        SOLVED,
+        /** stopped before the search finished, eg: cancelled or at a deadline outside a budget */
+        UNSOLVED,
+        /** the puzzle has no solution */
+        CONTRADICTION,
+        /** ran out of a {@link SolveBudget} limit; the solution holds what the rules deduced */
+        BUDGET_EXCEEDED
+    }
+
+    private final int index;
+    private final Status status;
+    private final Solution solution;
+    private final long nanos;
+    private final SolveStats stats;
+
+    SolveResult(int index, Status status, Solution solution, long nanos, SolveStats stats) {
+        this.index = index;
+        this.status = status;
+        this.solution = solution;
+        this.nanos = nanos;
+        this.stats = stats;
+    }
+
+    /**
+     * @return position of the puzzle in the batch input, from 0; 0 when
+     *         not solved as part of a batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return solved grid, or the grid as far as the solver got, with the
+     *         candidates of each unknown cell
+     */
+    public Solution getSolution() {
+        return solution;
+    }
+
+    /**
+     * @return time spent solving, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return counters from the solver, including the difficulty rating
+     */
+    public SolveStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "SolveResult{" +
+                index +
+                ", " + status +
+                ", " + nanos / 1000 + "us" +
+                '}';
+    }
+}
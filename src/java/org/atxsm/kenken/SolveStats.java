@@ -0,0 +1,172 @@
+package org.atxsm.kenken;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters from one {@link Solver} run: how often each deduction rule
+ * was applied and how many candidates it removed, the size of the
+ * search, and the time spent propagating before the search and in it.
+ * <p>
+ * Apart from the times, the counters depend only on the puzzle, so the
+ * {@link #getDifficulty() difficulty} is a deterministic rating.
+ */
+public final class SolveStats {
+    /**
+     * Deduction rules, each weighted by how hard it is for a person to apply
+     */
+    public enum Rule {
+        /** single-cell cages */
+        IDENTITY(1),
+        /** a known value leaves the rest of its row and column */
+        UNIQUENESS(1),
+        /** known cells are removed from SUM and PRODUCT cages */
+        SHRINK(1),
+        /** two-cell cages */
+        PAIRS(2),
+        /** hidden singles and naked pairs and triples in rows and columns */
+        LINES(3),
+        /** valid assignments of cages with three or more cells */
+        ASSIGNMENTS(4);
+
+        final int weight;
+
+        Rule(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /** difficulty added per value tried by the search, per row */
+    static final int BRANCH_WEIGHT = 1;
+
+    private final int size;
+    private final long[] passes;
+    private final long[] eliminations;
+    private final long branches;
+    private final long backtracks;
+    private final int maxDepth;
+    private final int restarts;
+    private final long nogoods;
+    private final long propagations;
+    private final long propagationNanos;
+    private final long searchNanos;
+
+    SolveStats(int size, long[] passes, long[] eliminations, long branches, long backtracks,
+               int maxDepth, int restarts, long nogoods, long propagations,
+               long propagationNanos, long searchNanos) {
+        this.size = size;
+        this.passes = passes;
+        this.eliminations = eliminations;
+        this.branches = branches;
+        this.backtracks = backtracks;
+        this.maxDepth = maxDepth;
+        this.restarts = restarts;
+        this.nogoods = nogoods;
+        this.propagations = propagations;
+        this.propagationNanos = propagationNanos;
+        this.searchNanos = searchNanos;
+    }
+
+    /**
+     * @return number of times rule was applied to a cage, line or cell
+     */
+    public long getPasses(Rule rule) {
+        return passes[rule.ordinal()];
+    }
+
+    /**
+     * @return number of candidates rule removed, including ones later
+     *         restored by backtracking
+     */
+    public long getEliminations(Rule rule) {
+        return eliminations[rule.ordinal()];
+    }
+
+    /**
+     * @return number of values tried by the search
+     */
+    public long getBranches() {
+        return branches;
+    }
+
+    /**
+     * @return number of tried values that led to a contradiction
+     */
+    public long getBacktracks() {
+        return backtracks;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return number of times the search went back to the top of the tree
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * @return number of nogoods learned at restarts
+     */
+    public long getNogoods() {
+        return nogoods;
+    }
+
+    /**
+     * @return number of times a cage or line was revised by the rules,
+     *         as limited by {@link SolveBudget#getMaxPropagations()}
+     */
+    public long getPropagations() {
+        return propagations;
+    }
+
+    /**
+     * @return time spent applying the rules before searching, in nanoseconds
+     */
+    public long getPropagationNanos() {
+        return propagationNanos;
+    }
+
+    /**
+     * @return time spent searching, in nanoseconds
+     */
+    public long getSearchNanos() {
+        return searchNanos;
+    }
+
+    /**
+     * Weighted eliminations divided by the number of candidates a solution
+     * removes, plus {@link #BRANCH_WEIGHT} per value tried by the search
+     * divided by the size. A puzzle the rules solve without searching
+     * rates from 1, easy rules only, to 4, cage assignments only.
+     */
+    public double getDifficulty() {
+        long weighted = 0;
+        for (Rule rule : Rule.values()) {
+            weighted += rule.weight * eliminations[rule.ordinal()];
+        }
+        final long removed = (long) size * size * Math.max(1, size - 1);
+        return (double) weighted / removed + (double) BRANCH_WEIGHT * branches / size;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("SolveStats{");
+        for (Rule rule : Rule.values()) {
+            sb.append(rule).append('=')
+                    .append(passes[rule.ordinal()]).append('/')
+                    .append(eliminations[rule.ordinal()]).append(", ");
+        }
+        return sb.append("branches=").append(branches)
+                .append(", backtracks=").append(backtracks)
+                .append(", maxDepth=").append(maxDepth)
+                .append(", restarts=").append(restarts)
+                .append(", nogoods=").append(nogoods)
+                .append(", propagations=").append(propagations)
+                .append(", propagation=").append(TimeUnit.NANOSECONDS.toMicros(propagationNanos)).append("us")
+                .append(", search=").append(TimeUnit.NANOSECONDS.toMicros(searchNanos)).append("us")
+                .append(String.format(", difficulty=%.2f}", getDifficulty()))
+                .toString();
+    }
+}
@@ -1,8 +1,14 @@
 package org.atxsm.kenken;
 
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.atxsm.kenken.Operator.*;
 
@@ -18,6 +24,9 @@ import static org.atxsm.kenken.Operator.*;
  *         the unknown cell values in the cage must be factors 
  *         of the aggregate value divided by the known cell 
  *         values.</li>
+ *     <li>Assignments. The values of a cage with three or more
+ *         cells must come from an assignment of all its cells
+ *         that reaches the aggregate value.</li>
  *     <li>Limited products. If the operator is / and both 
  *         values are unknown, then all the unknown cell values 
  *         must either be evenly divisible by the aggregate 
@@ -28,36 +37,932 @@ import static org.atxsm.kenken.Operator.*;
  *         algebraically using the aggregate value, the 
  *         aggregate operator's inverse, and the known cell 
  *         value.</li>
+ *     <li>Lines. Every value must still have a place in each
+ *         row and column. A value with only one place left in a
+ *         line goes there (hidden single), and when the candidates
+ *         of two or three cells of a line together hold only that
+ *         many values, the other cells of the line cannot have
+ *         them (naked pair or triple).</li>
+ *     <li>Search. When no rule makes progress, try each possible
+ *         value of the unknown cell with the fewest possible
+ *         values and backtrack when that leads to a
+ *         contradiction.</li>
  * </ul>
  *
+ * The search weighs each cage, row and column by the contradictions it
+ * has found, and branches on the cell with the fewest candidates for the
+ * weight of its constraints (dom/wdeg). When solving for one solution it
+ * also restarts from the top after a Luby sequence of backtracks. Each
+ * restart learns, for every value the abandoned branch had already ruled
+ * out, the nogood of that value with the values chosen above it; the
+ * learned nogoods keep later branches out of the same dead ends, and
+ * cells are tried first with the value they last held.
+ *
+ * A Solver is not thread safe, but solvers share no mutable state, so
+ * separate puzzles can be solved concurrently with one Solver each.
+ *
  * User: Cheng Leong
  * Date: 4/28/12
  * Time: 11:46 PM
  */
-public class Solver {
+public class Solver implements SolverStrategy {
+    /** backtracks between restarts, times the Luby sequence */
+    static final long RESTART_BACKTRACKS = 100;
+    /** learned nogoods kept across restarts */
+    static final int NOGOOD_CAPACITY = 1 << 12;
+
+    private final int size;
     private final Solution solution;
-    private final Set<Puzzle.Cage> cages;
-    
+    // cages as given, with their assignment or pair tables where available;
+    // assignment tables are looked up on first use, within the deadline
+    private final Puzzle.Cage[] puzzleCages;
+    private final CageTable[] tables;
+    private final boolean[] tablesLookedUp;
+    private final PairTable[] pairTables;
+    // current form of each cage; shrunk as values become known, null once solved
+    private final Puzzle.Cage[] cages;
+    // last assignment found for each cell and value of each cage with a table
+    private final int[][] residues;
+    // the last two-cell form each cage was shrunk to, and its pair table
+    private final Puzzle.Cage[] shrunkPairCages;
+    private final PairTable[] shrunkPairTables;
+
+    // constraint ids: cage slots first, then rows, then columns
+    private final int[] cellCages;
+    private final int rowIds;
+    private final int colIds;
+    // constraints waiting to be revised, first in first out
+    private final int[] queue;
+    // scratch space for revising one line
+    private final long[] lineMasks;
+    private final int[] lineCells;
+    private final boolean[] queued;
+    private int queueHead;
+    private int queueSize;
+
+    // previous form of each replaced cage, most recent last
+    private int[] cageTrailSlots;
+    private Puzzle.Cage[] cageTrailCages;
+    private int cageTrailSize;
+
+    // search stack: branching cell, untried values and trail marks per level
+    private final int[] branchCells;
+    private final long[] branchRemaining;
+    private final int[] branchSolutionMarks;
+    private final int[] branchCageMarks;
+    private final long[] branchDomains; // candidates of the branching cell
+    private final long[] branchChoices; // value being tried, 0 once it failed
+    private int depth;
+    private boolean searching;
+
+    // contradictions found by each constraint id, for dom/wdeg
+    private final long[] weights;
+    // restarts, only when solving for one solution
+    private boolean restarting;
+    private long restartBacktracks;  // backtracks at which to restart next
+    private int restarts;
+    private NogoodStore nogoods;
+    private int[] nogoodLiterals;
+    private final int[] phases;      // last value held by each cell, or 0
+
+    // optional System.nanoTime() after which the search gives up
+    private boolean hasDeadline;
+    private long deadline;
+    private long nodes;
+    // optional limits on values tried and on revisions, from a SolveBudget
+    private long maxBranches = Long.MAX_VALUE;
+    private long maxPropagations = Long.MAX_VALUE;
+    private boolean stopped;
+    // optional flag shared with other solvers, set to make them all give up
+    private AtomicBoolean cancelled;
+
+    // counters for SolveStats, by rule ordinal; uniqueness is counted by the solution
+    private final long[] rulePasses = new long[SolveStats.Rule.values().length];
+    private final long[] ruleEliminations = new long[rulePasses.length];
+    private long uniquenessPassesBase;
+    private long uniquenessEliminationsBase;
+    private long branches;
+    private long backtracks;
+    private int maxDepth;
+    private long propagations;
+    private long propagationNanos;
+    private long searchNanos;
+
     public Solver(Puzzle puzzle) {
-        this.solution = new Solution(puzzle.getSize());
-        this.cages = new HashSet<Puzzle.Cage>(puzzle.getCages());
+        this.size = puzzle.getSize();
+        this.solution = new Solution(size);
+        this.puzzleCages = puzzle.getCages().toArray(new Puzzle.Cage[puzzle.getCages().size()]);
+        this.cages = puzzleCages.clone();
+        this.residues = new int[cages.length][];
+        this.shrunkPairCages = new Puzzle.Cage[cages.length];
+        this.shrunkPairTables = new PairTable[cages.length];
+        this.tables = new CageTable[cages.length];
+        this.tablesLookedUp = new boolean[cages.length];
+        this.pairTables = new PairTable[cages.length];
+        for (int slot = 0; slot < cages.length; slot++) {
+            if (cages[slot].rowsCols.length == 4) {
+                pairTables[slot] = PairTable.forCage(cages[slot], size);
+            }
+        }
+        this.cellCages = new int[size * size];
+        for (int slot = 0; slot < cages.length; slot++) {
+            final int[] rowsCols = cages[slot].rowsCols;
+            for (int i = 0; i < rowsCols.length; i += 2) {
+                cellCages[rowsCols[i] * size + rowsCols[i + 1]] = slot;
+            }
+        }
+        this.rowIds = cages.length;
+        this.colIds = rowIds + size;
+        this.queue = new int[colIds + size];
+        this.queued = new boolean[queue.length];
+        this.lineMasks = new long[size];
+        this.lineCells = new int[size];
+        this.cageTrailSlots = new int[cages.length];
+        this.cageTrailCages = new Puzzle.Cage[cages.length];
+        final int cells = size * size;
+        this.branchCells = new int[cells];
+        this.branchRemaining = new long[cells];
+        this.branchSolutionMarks = new int[cells];
+        this.branchCageMarks = new int[cells];
+        this.branchDomains = new long[cells];
+        this.branchChoices = new long[cells];
+        this.weights = new long[queue.length];
+        Arrays.fill(weights, 1);
+        this.phases = new int[cells];
+    }
+
+    /**
+     * Copies the cages and tables of parent, sharing only the structures
+     * that never change after construction, with the values and candidates
+     * of solution
+     */
+    private Solver(Solver parent, Solution solution) {
+        this.size = parent.size;
+        this.solution = new Solution(solution);
+        this.puzzleCages = parent.puzzleCages;
+        this.tables = parent.tables.clone();
+        this.tablesLookedUp = parent.tablesLookedUp.clone();
+        this.pairTables = parent.pairTables;
+        this.cages = parent.cages.clone();
+        this.residues = new int[cages.length][];
+        this.shrunkPairCages = new Puzzle.Cage[cages.length];
+        this.shrunkPairTables = new PairTable[cages.length];
+        this.cellCages = parent.cellCages;
+        this.rowIds = parent.rowIds;
+        this.colIds = parent.colIds;
+        this.queue = new int[parent.queue.length];
+        this.queued = new boolean[queue.length];
+        this.lineMasks = new long[size];
+        this.lineCells = new int[size];
+        this.cageTrailSlots = new int[cages.length];
+        this.cageTrailCages = new Puzzle.Cage[cages.length];
+        final int cells = size * size;
+        this.branchCells = new int[cells];
+        this.branchRemaining = new long[cells];
+        this.branchSolutionMarks = new int[cells];
+        this.branchCageMarks = new int[cells];
+        this.branchDomains = new long[cells];
+        this.branchChoices = new long[cells];
+        this.weights = parent.weights.clone();
+        this.phases = parent.phases.clone();
+        this.hasDeadline = parent.hasDeadline;
+        this.deadline = parent.deadline;
+        this.cancelled = parent.cancelled;
     }
 
+    /**
+     * @return independent solver starting from the current state of this one
+     */
+    Solver copy() {
+        return new Solver(this, solution);
+    }
+
+    /**
+     * @return independent solver with the cages of this one and a copy of
+     *         the values and candidates of grid, which must be the same size
+     */
+    Solver copy(Solution grid) {
+        if (grid.getSize() != size) {
+            throw new IllegalArgumentException("grid is " + grid.getSize() + "x" + grid.getSize()
+                    + ", puzzle is " + size + "x" + size);
+        }
+        return new Solver(this, grid);
+    }
+
+    @Override
     public Solution getSolution() {
         return solution;
     }
 
     /**
-     * Computes solution for puzzle
-     * @return true if all values found; false otherwise
+     * @return counters for the rules applied and the search since the
+     *         last solve, or since construction
+     */
+    public SolveStats getStats() {
+        final long[] eliminations = ruleEliminations.clone();
+        final long[] passes = rulePasses.clone();
+        final int uniqueness = SolveStats.Rule.UNIQUENESS.ordinal();
+        passes[uniqueness] = solution.getUniquenessPasses() - uniquenessPassesBase;
+        eliminations[uniqueness] = solution.getUniquenessEliminations() - uniquenessEliminationsBase;
+        return new SolveStats(size, passes, eliminations, branches, backtracks, maxDepth,
+                restarts, nogoods == null ? 0 : nogoods.getLearned(), propagations,
+                propagationNanos, searchNanos);
+    }
+
+    /**
+     * Stop searching once System.nanoTime() passes deadline
+     */
+    void setDeadline(long deadline) {
+        this.hasDeadline = true;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Stop searching once cancelled is set
+     */
+    void setCancelled(AtomicBoolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return true if the last solve gave up at its deadline or budget,
+     *         or was cancelled, rather than finishing the search
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Computes solution for puzzle, searching when deduction alone stalls.
+     * Recorded in the {@link SolverMetrics#installed() installed} metrics.
+     * @return true if all values found; false if the puzzle has no solution
      * @see #getSolution()
      */
+    @Override
     public boolean solve() {
-        boolean modified;
-        do {
-            modified = evaluateIdentity() | shrinkCages() | limitPairs();
-        } while (modified);
-        return solution.isComplete();
+        final boolean solved = solveOnce();
+        record(solved ? SolveResult.Status.SOLVED
+                : stopped ? SolveResult.Status.UNSOLVED : SolveResult.Status.CONTRADICTION);
+        return solved;
+    }
+
+    /**
+     * Computes solution for puzzle like {@link #solve()}, giving up once
+     * any limit of budget runs out. The limits are checked every few
+     * revisions and values tried, and the time while building cage tables,
+     * so a solve overruns its time by at most one revision. The result of a
+     * solve that gave up holds the values and candidates deduced before the
+     * search branched rather than its guesses, so every solution of the
+     * puzzle lies within them.
+     * @return result with a copy of the solution, solved or as far as the
+     *         rules got, and status SOLVED, CONTRADICTION or BUDGET_EXCEEDED
+     */
+    public SolveResult solve(SolveBudget budget) {
+        final long start = System.nanoTime();
+        final boolean hadDeadline = hasDeadline;
+        final long oldDeadline = deadline;
+        startBudget(budget, start);
+        final SolveResult.Status status;
+        try {
+            if (solveOnce()) {
+                status = SolveResult.Status.SOLVED;
+            } else if (stopped) {
+                status = SolveResult.Status.BUDGET_EXCEEDED;
+                if (depth > 0) {
+                    undo(branchSolutionMarks[0], branchCageMarks[0]);
+                    depth = 0;
+                    searching = false;
+                }
+            } else {
+                status = SolveResult.Status.CONTRADICTION;
+            }
+        } finally {
+            endBudget(hadDeadline, oldDeadline);
+        }
+        record(status);
+        return new SolveResult(0, status, new Solution(solution), System.nanoTime() - start, getStats());
+    }
+
+    /**
+     * Counts solutions like {@link #countSolutions(int)}, giving up once
+     * any limit of budget runs out, which {@link #isStopped()} then tells.
+     * A budget of nodes and propagations only gives the same count
+     * however loaded the machine is.
+     */
+    int countSolutions(int limit, SolveBudget budget) {
+        final boolean hadDeadline = hasDeadline;
+        final long oldDeadline = deadline;
+        startBudget(budget, System.nanoTime());
+        try {
+            return countSolutions(limit);
+        } finally {
+            endBudget(hadDeadline, oldDeadline);
+        }
+    }
+
+    private void startBudget(SolveBudget budget, long start) {
+        if (budget.hasTimeout()) {
+            setDeadline(start + budget.getTimeoutNanos());
+        }
+        maxBranches = budget.getMaxNodes();
+        maxPropagations = budget.getMaxPropagations();
+    }
+
+    /**
+     * Lifts the limits of a budget, back to the deadline before it
+     */
+    private void endBudget(boolean hadDeadline, long oldDeadline) {
+        hasDeadline = hadDeadline;
+        deadline = oldDeadline;
+        maxBranches = Long.MAX_VALUE;
+        maxPropagations = Long.MAX_VALUE;
+    }
+
+    private boolean solveOnce() {
+        reset();
+        restarting = true;
+        restartBacktracks = RESTART_BACKTRACKS;
+        propagate();
+        return nextSolution();
+    }
+
+    private void record(SolveResult.Status status) {
+        final SolverMetrics metrics = SolverMetrics.installed();
+        if (metrics != null) {
+            metrics.recordSolve(status, getStats());
+        }
+    }
+
+    /**
+     * Counts solutions by exhaustive search, stopping as soon as limit
+     * are found. A limit of 2 checks that a puzzle has a unique solution.
+     * Solutions are counted on the search's own grid, never copied.
+     * @return number of solutions found, at most limit
+     */
+    public int countSolutions(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        reset();
+        propagate();
+        int count = 0;
+        while (count < limit && nextSolution()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Enumerates the solutions of puzzle one search step at a time: each
+     * call to hasNext resumes the search only as far as the next solution,
+     * and only the solutions taken with next are copied out of the grid.
+     * The iterator owns this solver until it is abandoned; any other call
+     * on the solver ends it.
+     * @return every solution, each exactly once, in search order
+     */
+    public Iterator<Solution> solutions() {
+        reset();
+        propagate();
+        return new Iterator<Solution>() {
+            private boolean ready;
+            private boolean found;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    found = nextSolution();
+                    ready = true;
+                }
+                return found;
+            }
+
+            @Override
+            public Solution next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return new Solution(solution);
+            }
+        };
+    }
+
+    /**
+     * @return {@link #solutions()} as a sequential stream, so that
+     *         limit or findFirst stop the search where they stop reading
+     */
+    public Stream<Solution> streamSolutions() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(solutions(),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Computes solution for puzzle like {@link #solve()}, handing the
+     * branches near the top of the search tree to pool
+     * @param splitDepth number of search levels that fork a task per value
+     * @return true if all values found; false if the puzzle has no solution
+     *         or the search gave up at the deadline, which
+     *         {@link #isStopped()} then tells
+     */
+    public boolean solveParallel(ForkJoinPool pool, int splitDepth) {
+        reset();
+        final ParallelSearch.Run run = ParallelSearch.run(this, pool, splitDepth, 1);
+        stopped = run.isStopped();
+        final Solution found = run.getFirst();
+        if (found == null) {
+            return false;
+        }
+        // the values copied in are undone by the next solve, like a branch
+        branchSolutionMarks[0] = solution.mark();
+        branchCageMarks[0] = cageTrailSize;
+        depth = 1;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                solution.restrict(row, col, Solution.bit(found.valueOrZero(row, col)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts solutions like {@link #solveParallel(ForkJoinPool, int)},
+     * stopping every branch once limit solutions are found between them.
+     * A limit of 2 checks that a puzzle has a unique solution.
+     * @return number of solutions found, at most limit; fewer than there
+     *         are if {@link #isStopped()} then tells the search gave up
+     */
+    public int countSolutionsParallel(ForkJoinPool pool, int splitDepth, int limit) {
+        reset();
+        final ParallelSearch.Run run = ParallelSearch.run(this, pool, splitDepth, limit);
+        stopped = run.isStopped();
+        return run.getCount();
+    }
+
+    /**
+     * Goes back to the grid before the branches of the last search, keeping
+     * only what the rules deduced, and clears the counters
+     */
+    private void reset() {
+        if (depth > 0) {
+            undo(branchSolutionMarks[0], branchCageMarks[0]);
+        }
+        depth = 0;
+        searching = false;
+        stopped = false;
+        restarting = false;
+        restarts = 0;
+        nogoods = null;
+        Arrays.fill(rulePasses, 0);
+        Arrays.fill(ruleEliminations, 0);
+        uniquenessPassesBase = solution.getUniquenessPasses();
+        uniquenessEliminationsBase = solution.getUniquenessEliminations();
+        branches = 0;
+        backtracks = 0;
+        maxDepth = 0;
+        propagations = 0;
+        propagationNanos = 0;
+        searchNanos = 0;
+    }
+
+    /**
+     * Sets the value of cell and applies the deduction rules
+     * @return true if the values found so far are consistent; false on contradiction
+     */
+    boolean assign(int cell, int value) {
+        final int mark = solution.mark();
+        solution.restrict(cell / size, cell % size, Solution.bit(value));
+        return propagate(mark);
+    }
+
+    /**
+     * Applies the deduction rules to every cage and line, and again to
+     * each one touching a changed cell, until none of them makes progress
+     * @return true if the values found so far are consistent; false on contradiction
+     */
+    boolean propagate() {
+        final long start = System.nanoTime();
+        for (int id = 0; id < queue.length; id++) {
+            schedule(id);
+        }
+        final boolean consistent = propagate(solution.mark());
+        propagationNanos += System.nanoTime() - start;
+        return consistent;
+    }
+
+    /**
+     * Applies the deduction rules to the cages and lines touching cells
+     * changed since the trail position, and to the ones they change in turn
+     * @return true if the values found so far are consistent; false on contradiction
+     */
+    private boolean propagate(int since) {
+        scheduleChanges(since);
+        while (queueSize > 0 && !solution.hasContradiction() && !stopped) {
+            if (propagations >= maxPropagations
+                    || (hasDeadline && (propagations & 0x3f) == 0 && System.nanoTime() - deadline >= 0)) {
+                stopped = true; // the search gives up before using what is left
+                break;
+            }
+            propagations++;
+            final int id = queue[queueHead];
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+            queued[id] = false;
+            final int before = solution.mark();
+            if (id < rowIds) {
+                reviseCage(id);
+            } else {
+                reviseLine(id - rowIds);
+            }
+            if (solution.hasContradiction()) {
+                weights[id]++;
+            }
+            scheduleChanges(before);
+        }
+        while (queueSize > 0) { // left over after a contradiction or stop
+            queued[queue[queueHead]] = false;
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+        }
+        return !solution.hasContradiction();
+    }
+
+    /**
+     * Applies the rules of one constraint, as propagation does, without
+     * going on to the constraints it changes. Ids are cage slots, in the
+     * order of the puzzle's cages, then rows, then columns.
+     * @return the rule that removed candidates, or null if none did
+     */
+    SolveStats.Rule revise(int id) {
+        if (id < 0 || id >= queue.length) {
+            throw new IndexOutOfBoundsException("constraint " + id + " of " + queue.length);
+        }
+        final long[] before = ruleEliminations.clone();
+        if (id < rowIds) {
+            reviseCage(id);
+        } else {
+            reviseLine(id - rowIds);
+        }
+        for (SolveStats.Rule rule : SolveStats.Rule.values()) {
+            if (ruleEliminations[rule.ordinal()] > before[rule.ordinal()]) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Schedules the constraints of each cell changed since the trail
+     * position, and applies the nogoods watching the cells newly set,
+     * whose changes are scheduled in turn
+     */
+    private void scheduleChanges(int since) {
+        for (int position = since; position < solution.mark() && !solution.hasContradiction(); position++) {
+            final int cell = solution.changedCell(position);
+            schedule(cellCages[cell]);
+            schedule(rowIds + cell / size);
+            schedule(colIds + cell % size);
+            final int value = solution.valueOrZero(cell / size, cell % size);
+            if (value != 0) {
+                phases[cell] = value;
+                if (nogoods != null) {
+                    nogoods.propagate(solution, cell, value);
+                }
+            }
+        }
+    }
+
+    private void schedule(int id) {
+        if (!queued[id]) {
+            queued[id] = true;
+            queue[(queueHead + queueSize) % queue.length] = id;
+            queueSize++;
+        }
+    }
+
+    /**
+     * Applies the cage rules to the cage in slot
+     */
+    private void reviseCage(int slot) {
+        if (cages[slot] == null) {
+            return;
+        }
+        if (cages[slot].operator == SUM || cages[slot].operator == PRODUCT) {
+            shrinkCage(slot);
+        }
+        final Puzzle.Cage cage = cages[slot];
+        if (cage == null) {
+            return;
+        }
+        if (cage.rowsCols.length == 2) {
+            evaluateIdentity(slot);
+        } else if (cage.rowsCols.length == 4) {
+            limitPair(slot);
+        } else {
+            filterCage(slot);
+        }
+    }
+
+    /**
+     * Applies the line rules to a row (line &lt; size) or column (line - size)
+     */
+    private void reviseLine(int line) {
+        final long before = ruleEliminations();
+        final long[] masks = lineMasks;
+        long once = 0;
+        long twice = 0;
+        for (int i = 0; i < size; i++) {
+            masks[i] = lineMask(line, i);
+            twice |= once & masks[i];
+            once |= masks[i];
+        }
+        if (once != Solution.fullMask(size)) {
+            restrictLine(line, 0, 0); // some value has no place left
+        } else {
+            hiddenSingles(line, masks, once & ~twice);
+            if (!solution.hasContradiction()) {
+                nakedSubsets(line);
+            }
+        }
+        record(SolveStats.Rule.LINES, before);
+    }
+
+    /**
+     * Sets each value of singles in the one cell of the line that can hold it
+     */
+    private void hiddenSingles(int line, long[] masks, long singles) {
+        for (int i = 0; i < size && singles != 0 && !solution.hasContradiction(); i++) {
+            final long single = masks[i] & singles;
+            if (single != 0) {
+                singles &= ~single;
+                // more than one hidden single in a cell is a contradiction
+                restrictLine(line, i, Long.bitCount(single) == 1 ? single : 0);
+            }
+        }
+    }
+
+    /**
+     * Finds two or three unknown cells of the line whose candidates together
+     * hold only two or three values, and removes those values from the
+     * other cells of the line
+     */
+    private void nakedSubsets(int line) {
+        final long[] masks = lineMasks;
+        final int[] cells = lineCells;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            masks[i] = lineMask(line, i);
+            final int candidates = Long.bitCount(masks[i]);
+            if (candidates == 2 || candidates == 3) {
+                cells[count++] = i;
+            }
+        }
+        for (int a = 0; a < count; a++) {
+            for (int b = a + 1; b < count; b++) {
+                final long pair = masks[cells[a]] | masks[cells[b]];
+                final int pairCount = Long.bitCount(pair);
+                if (pairCount == 2) {
+                    excludeFromLine(line, pair, cells[a], cells[b], -1);
+                } else if (pairCount == 3) {
+                    for (int c = b + 1; c < count; c++) {
+                        if (Long.bitCount(pair | masks[cells[c]]) == 3) {
+                            excludeFromLine(line, pair | masks[cells[c]], cells[a], cells[b], cells[c]);
+                        }
+                    }
+                }
+                if (solution.hasContradiction()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the values of subset from every cell of the line but the given ones
+     */
+    private void excludeFromLine(int line, long subset, int a, int b, int c) {
+        for (int i = 0; i < size && !solution.hasContradiction(); i++) {
+            if (i != a && i != b && i != c && (lineMask(line, i) & subset) != 0) {
+                restrictLine(line, i, ~subset);
+            }
+        }
+    }
+
+    /**
+     * @return candidates of cell i of a row (line &lt; size) or column (line - size)
+     */
+    private long lineMask(int line, int i) {
+        return line < size ? solution.candidateMask(line, i) : solution.candidateMask(i, line - size);
+    }
+
+    private void restrictLine(int line, int i, long mask) {
+        if (line < size) {
+            solution.restrict(line, i, mask);
+        } else {
+            solution.restrict(i, line - size, mask);
+        }
+    }
+
+    /**
+     * @return candidates removed so far by the rules, not counting
+     *         removals from rows and columns of newly set cells
+     */
+    private long ruleEliminations() {
+        return solution.getEliminations() - solution.getUniquenessEliminations();
+    }
+
+    private void record(SolveStats.Rule rule, long before) {
+        rulePasses[rule.ordinal()]++;
+        ruleEliminations[rule.ordinal()] += ruleEliminations() - before;
+    }
+
+    /**
+     * Depth-first search from the current state, branching on the unknown
+     * cell with the fewest candidates. Each branch records trail marks and
+     * backtracking undoes only the changes made below them.
+     * Calling again after a solution resumes with the next branch.
+     * @return true if a solution was found; false once all branches are exhausted
+     */
+    boolean nextSolution() {
+        final long start = System.nanoTime();
+        final boolean found = search();
+        searchNanos += System.nanoTime() - start;
+        return found;
+    }
+
+    private boolean search() {
+        boolean backtrack = searching || solution.hasContradiction();
+        searching = true;
+        while (true) {
+            int unknown = -1;
+            if (!backtrack && !stopped) {
+                // a complete grid is a solution however late it is found,
+                // unless propagation stopped before checking it
+                unknown = selectCell();
+                if (unknown < 0) {
+                    return true; // every value known and consistent
+                }
+            }
+            if (stopped
+                    || (hasDeadline && (nodes++ & 0x3f) == 0 && System.nanoTime() - deadline >= 0)
+                    || (cancelled != null && cancelled.get())) {
+                stopped = true;
+                return false;
+            }
+            if (!backtrack) {
+                branchCells[depth] = unknown;
+                branchDomains[depth] = solution.candidateMask(unknown / size, unknown % size);
+                branchRemaining[depth] = branchDomains[depth];
+                branchSolutionMarks[depth] = solution.mark();
+                branchCageMarks[depth] = cageTrailSize;
+                depth++;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+            backtrack = true;
+            while (depth > 0 && backtrack) {
+                final int level = depth - 1;
+                undo(branchSolutionMarks[level], branchCageMarks[level]);
+                final long remaining = branchRemaining[level];
+                if (remaining == 0) {
+                    depth--;
+                    continue;
+                }
+                if (branches >= maxBranches) {
+                    stopped = true;
+                    return false;
+                }
+                final int cell = branchCells[level];
+                final long saved = restarting && phases[cell] != 0 ? remaining & Solution.bit(phases[cell]) : 0;
+                final long choice = saved != 0 ? saved : Long.lowestOneBit(remaining);
+                branchRemaining[level] = remaining & ~choice;
+                branchChoices[level] = choice;
+                final int mark = solution.mark();
+                solution.restrict(cell / size, cell % size, choice);
+                branches++;
+                backtrack = !propagate(mark);
+                if (backtrack) {
+                    backtracks++;
+                    branchChoices[level] = 0;
+                    if (restarting && backtracks >= restartBacktracks) {
+                        restart();
+                        backtrack = solution.hasContradiction();
+                        break;
+                    }
+                }
+            }
+            if (backtrack) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Goes back to the top of the search tree, learning a nogood for each
+     * value the branches being abandoned have ruled out
+     */
+    private void restart() {
+        undo(branchSolutionMarks[0], branchCageMarks[0]);
+        if (nogoods == null) {
+            nogoods = new NogoodStore(size, NOGOOD_CAPACITY);
+            nogoodLiterals = new int[branchCells.length];
+        }
+        final int mark = solution.mark();
+        for (int level = 0; level < depth && !solution.hasContradiction(); level++) {
+            final int cell = branchCells[level];
+            // values tried at this level and exhausted below it
+            final long refuted = branchDomains[level] & ~branchRemaining[level] & ~branchChoices[level];
+            for (long mask = refuted; mask != 0; mask &= mask - 1) {
+                nogoodLiterals[level] = cell * size + Long.numberOfTrailingZeros(mask);
+                nogoods.add(nogoodLiterals, level + 1, solution);
+            }
+            if (branchChoices[level] == 0) {
+                break;
+            }
+            nogoodLiterals[level] = cell * size + Long.numberOfTrailingZeros(branchChoices[level]);
+        }
+        nogoods.reduce();
+        depth = 0;
+        restarts++;
+        restartBacktracks = backtracks + RESTART_BACKTRACKS * luby(restarts + 1);
+        propagate(mark);
+    }
+
+    /**
+     * @return term i, from 1, of the Luby sequence 1, 1, 2, 1, 1, 2, 4, 1, ...
+     */
+    static long luby(long i) {
+        while (true) {
+            int k = 1;
+            while ((1L << k) - 1 < i) {
+                k++;
+            }
+            if (i == (1L << k) - 1) {
+                return 1L << (k - 1);
+            }
+            i -= (1L << (k - 1)) - 1;
+        }
+    }
+
+    /**
+     * @return index of an unknown cell with the fewest candidates for the
+     *         weight of its cage, row and column; -1 if all are known
+     */
+    int selectCell() {
+        int best = -1;
+        int bestCount = 1;
+        long bestWeight = 0;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (solution.valueOrZero(row, col) == 0) {
+                    final int count = solution.candidateCount(row, col);
+                    final long weight = weights[cellCages[row * size + col]] + weights[rowIds + row]
+                            + weights[colIds + col];
+                    if (count * bestWeight < bestCount * weight) {
+                        best = row * size + col;
+                        bestCount = count;
+                        bestWeight = weight;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return position in the cage trail, to pass to {@link #undo(int, int)}
+     *         along with a mark of the solution trail
+     */
+    int cageMark() {
+        return cageTrailSize;
+    }
+
+    /**
+     * Reverts every change to the solution and cages made since the marks were taken
+     */
+    void undo(int solutionMark, int cageMark) {
+        solution.undo(solutionMark);
+        while (cageTrailSize > cageMark) {
+            cageTrailSize--;
+            cages[cageTrailSlots[cageTrailSize]] = cageTrailCages[cageTrailSize];
+        }
+    }
+
+    private void replaceCage(int slot, Puzzle.Cage cage) {
+        if (cageTrailSize == cageTrailSlots.length) {
+            final int capacity = cageTrailSize * 2 + 1;
+            cageTrailSlots = Arrays.copyOf(cageTrailSlots, capacity);
+            cageTrailCages = Arrays.copyOf(cageTrailCages, capacity);
+        }
+        cageTrailSlots[cageTrailSize] = slot;
+        cageTrailCages[cageTrailSize] = cages[slot];
+        cageTrailSize++;
+        cages[slot] = cage;
+    }
+
+    /**
+     * Records that no values can satisfy cage
+     */
+    private void fail(Puzzle.Cage cage) {
+        solution.restrict(cage.rowsCols[0], cage.rowsCols[1], 0);
     }
 
     /**
@@ -65,45 +970,178 @@ public class Solver {
      */
     boolean evaluateIdentity() {
         boolean modified = false;
-        for (Iterator<Puzzle.Cage> iterator = cages.iterator(); iterator.hasNext(); ) {
-            Puzzle.Cage cage = iterator.next();
-            if (cage.rowsCols.length == 2) {
-                solution.set(cage.rowsCols[0], cage.rowsCols[1], cage.target);
-                iterator.remove(); // solved cage
-                modified = true;
-            }
+        for (int slot = 0; slot < cages.length; slot++) {
+            modified |= evaluateIdentity(slot);
         }
         return modified;
     }
 
+    private boolean evaluateIdentity(int slot) {
+        final Puzzle.Cage cage = cages[slot];
+        if (cage == null || cage.rowsCols.length != 2) {
+            return false;
+        }
+        final long before = ruleEliminations();
+        if (cage.target < 1 || cage.target > size) {
+            fail(cage);
+        } else {
+            solution.restrict(cage.rowsCols[0], cage.rowsCols[1], Solution.bit((int) cage.target));
+        }
+        replaceCage(slot, null); // solved cage
+        record(SolveStats.Rule.IDENTITY, before);
+        return true;
+    }
+
     /**
      * Removes cells with values from SUM or PRODUCT cages
      * @return true if cages were shrunk; false otherwise
      */
     boolean shrinkCages() {
         boolean modified = false;
-        Set<Puzzle.Cage> shrunkCages = new HashSet<Puzzle.Cage>();
-        for (Iterator<Puzzle.Cage> iterator = cages.iterator(); iterator.hasNext(); ) {
-            Puzzle.Cage cage = iterator.next();
-            if (cage.operator == SUM || cage.operator == PRODUCT) {
-                for (int i = 0; i < cage.rowsCols.length; i += 2) {
-                    final Integer value = solution.get(cage.rowsCols[i], cage.rowsCols[i + 1]);
-                    if (value != null) {
-                        shrunkCages.add(createSmallerCage(cage, i, value));
-                        iterator.remove(); // old cage
-                        modified = true;
-                    }
+        for (int slot = 0; slot < cages.length; slot++) {
+            modified |= shrinkCage(slot);
+        }
+        return modified;
+    }
+
+    private boolean shrinkCage(int slot) {
+        final Puzzle.Cage cage = cages[slot];
+        if (cage == null || (cage.operator != SUM && cage.operator != PRODUCT)) {
+            return false;
+        }
+        final long before = ruleEliminations();
+        Puzzle.Cage shrunk = cage;
+        // from the end, so earlier offsets stay valid as cells are removed
+        for (int i = cage.rowsCols.length - 2; i >= 0 && shrunk != null; i -= 2) {
+            final int value = solution.valueOrZero(cage.rowsCols[i], cage.rowsCols[i + 1]);
+            if (value == 0) {
+                continue;
+            }
+            if (shrunk.operator == PRODUCT && shrunk.target % value != 0) {
+                fail(cage);
+                shrunk = null;
+            } else if (shrunk.rowsCols.length == 2) {
+                if (shrunk.target != value) {
+                    fail(cage);
                 }
+                shrunk = null; // solved cage
+            } else {
+                shrunk = createSmallerCage(shrunk, i, value);
             }
         }
-        if (modified) {
-            cages.addAll(shrunkCages);
+        record(SolveStats.Rule.SHRINK, before);
+        if (shrunk == cage) {
+            return false;
+        }
+        replaceCage(slot, shrunk);
+        return true;
+    }
+
+    /**
+     * Keep only the values that take part in some valid assignment of
+     * each large SUM or PRODUCT cage
+     * @return true if impossibilities were added; false otherwise
+     */
+    boolean filterCages() {
+        boolean modified = false;
+        for (int slot = 0; slot < cages.length && !solution.hasContradiction(); slot++) {
+            modified |= filterCage(slot);
+        }
+        return modified;
+    }
+
+    private boolean filterCage(int slot) {
+        // cages shrunk to two cells are left to limitPairs
+        if (cages[slot] == null || cages[slot].rowsCols.length <= 4) {
+            return false;
+        }
+        final CageTable table = table(slot);
+        if (table == null) {
+            final long before = ruleEliminations();
+            final boolean modified = boundCage(cages[slot]);
+            record(SolveStats.Rule.ASSIGNMENTS, before);
+            return modified;
+        }
+        if (residues[slot] == null) {
+            residues[slot] = table.newResidues();
+        }
+        final long before = ruleEliminations();
+        final boolean modified = table.prune(solution, puzzleCages[slot], residues[slot]);
+        record(SolveStats.Rule.ASSIGNMENTS, before);
+        return modified;
+    }
+
+    /**
+     * Looks up the assignment table of every cage now rather than on first
+     * use, without a deadline, so that copies start with them all
+     */
+    void lookUpTables() {
+        for (int slot = 0; slot < tables.length; slot++) {
+            if (!tablesLookedUp[slot]) {
+                tables[slot] = CageTable.forCage(puzzleCages[slot], size);
+                tablesLookedUp[slot] = true;
+            }
+        }
+    }
+
+    /**
+     * @return assignment table of the cage in slot, built if need be
+     *         before the deadline; null if the cage has none or the
+     *         deadline passed first, in which case a later call tries again
+     */
+    private CageTable table(int slot) {
+        if (!tablesLookedUp[slot]) {
+            if (hasDeadline) {
+                tables[slot] = CageTable.forCage(puzzleCages[slot], size, deadline);
+                tablesLookedUp[slot] = tables[slot] != null || System.nanoTime() - deadline < 0;
+            } else {
+                tables[slot] = CageTable.forCage(puzzleCages[slot], size);
+                tablesLookedUp[slot] = true;
+            }
+        }
+        return tables[slot];
+    }
+
+    /**
+     * Cheap stand-in for the assignment table of a cage too large to have
+     * one: each value of a PRODUCT cage must divide the target, and each
+     * value of a SUM cage must leave a total the other cells can make up
+     */
+    private boolean boundCage(Puzzle.Cage cage) {
+        boolean modified = false;
+        if (cage.operator == PRODUCT) {
+            long divisors = 0;
+            for (int value = 1; value <= size; value++) {
+                if (cage.target % value == 0) {
+                    divisors |= Solution.bit(value);
+                }
+            }
+            for (int i = 0; i < cage.rowsCols.length && !solution.hasContradiction(); i += 2) {
+                modified |= solution.restrict(cage.rowsCols[i], cage.rowsCols[i + 1], divisors);
+            }
+        } else if (cage.operator == SUM) {
+            long low = 0;
+            long high = 0;
+            for (int i = 0; i < cage.rowsCols.length; i += 2) {
+                final long mask = solution.candidateMask(cage.rowsCols[i], cage.rowsCols[i + 1]);
+                low += Solution.lowestValue(mask);
+                high += Long.SIZE - Long.numberOfLeadingZeros(mask);
+            }
+            for (int i = 0; i < cage.rowsCols.length && !solution.hasContradiction(); i += 2) {
+                final long mask = solution.candidateMask(cage.rowsCols[i], cage.rowsCols[i + 1]);
+                final long othersLow = low - Solution.lowestValue(mask);
+                final long othersHigh = high - (Long.SIZE - Long.numberOfLeadingZeros(mask));
+                final long least = Math.max(1, cage.target - othersHigh);
+                final long most = Math.min(size, cage.target - othersLow);
+                final long range = least > most ? 0 : Solution.fullMask((int) most) & ~Solution.fullMask((int) least - 1);
+                modified |= solution.restrict(cage.rowsCols[i], cage.rowsCols[i + 1], range);
+            }
         }
         return modified;
     }
 
     Puzzle.Cage createSmallerCage(Puzzle.Cage cage, int rowColOffset, int value) {
-        final int reducedTarget;
+        final long reducedTarget;
         switch (cage.operator) {
             case SUM: reducedTarget = cage.target - value; break;
             case PRODUCT: reducedTarget = cage.target / value; break;
@@ -128,41 +1166,45 @@ public class Solver {
      */
     boolean limitPairs() {
         boolean modified = false;
-        for (Puzzle.Cage cage : cages) {
-            if (cage.rowsCols.length == 4) {
-                final int row1 = cage.rowsCols[0];
-                final int col1 = cage.rowsCols[1];
-                final Set<Integer> possibilities1 = solution.findPossibilities(row1, col1);
-                final int row2 = cage.rowsCols[2];
-                final int col2 = cage.rowsCols[3];
-                final Set<Integer> possibilities2 = solution.findPossibilities(row2, col2);
-                for (Iterator<Integer> iterator = possibilities1.iterator(); iterator.hasNext(); ) {
-                    int i = iterator.next();
-                    if (impossiblePairs(i, possibilities2, cage.target, cage.operator)) {
-                        modified |= solution.markImpossible(row1, col1, i);
-                        iterator.remove(); // remove i from possibilities1
-                    }
-                }
-                for (int j : possibilities2) {
-                    if (impossiblePairs(j, possibilities1, cage.target, cage.operator)) {
-                        modified |= solution.markImpossible(row2, col2, j);
-                    }
-                }
+        for (int slot = 0; slot < cages.length; slot++) {
+            if (cages[slot] != null && cages[slot].rowsCols.length == 4) {
+                modified |= limitPair(slot);
             }
         }
         return modified;
     }
 
-    private boolean impossiblePairs(int i, Set<Integer> js, int target, Operator operator) {
-        for (int j : js) {
-            if (((operator == DIFFERENCE && (i - j == target || j - i == target)))
-                    || (operator == RATIO && (i * target == j || j * target == i))
-                    || (operator == SUM && (i + j == target))
-                    || (operator == PRODUCT && (i * j == target))) {
-                return false;
+    /**
+     * Keeps only the values of each cell of the two-cell cage in slot
+     * that some candidate of the other cell reaches the target with
+     */
+    private boolean limitPair(int slot) {
+        final Puzzle.Cage cage = cages[slot];
+        final PairTable table;
+        if (cage == puzzleCages[slot]) {
+            table = pairTables[slot];
+        } else {
+            // cages shrunk to two cells have a new target, and so a new table
+            if (cage != shrunkPairCages[slot]) {
+                shrunkPairCages[slot] = cage;
+                shrunkPairTables[slot] = PairTable.forCage(cage, size);
             }
+            table = shrunkPairTables[slot];
         }
-        return true;
+        final long before = ruleEliminations();
+        final int row1 = cage.rowsCols[0];
+        final int col1 = cage.rowsCols[1];
+        final int row2 = cage.rowsCols[2];
+        final int col2 = cage.rowsCols[3];
+        final boolean sameLine = row1 == row2 || col1 == col2;
+        boolean modified = solution.restrict(row1, col1,
+                table.supported(solution.candidateMask(row2, col2), sameLine));
+        if (!solution.hasContradiction()) {
+            modified |= solution.restrict(row2, col2,
+                    table.supported(solution.candidateMask(row1, col1), sameLine));
+        }
+        record(SolveStats.Rule.PAIRS, before);
+        return modified;
     }
 
 }
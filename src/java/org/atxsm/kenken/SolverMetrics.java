@@ -0,0 +1,372 @@
+package org.atxsm.kenken;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and a latency histogram over every {@link Solver#solve()} and
+ * {@link SolutionCache} lookup while the registry is
+ * {@link #install(SolverMetrics) installed}. With none installed, which
+ * is the default, a solve costs one volatile read more.
+ * <p>
+ * The rules and the search already count their work per solve for
+ * {@link SolveStats}, so a solve adds its counters here once, when it
+ * ends, and nothing is recorded from inside propagation. Recording is
+ * lock free, so many threads can share one registry.
+ * <p>
+ * Metrics are read through JMX, see {@link #register(String)}, or as
+ * text in the Prometheus exposition format, see {@link #writeText(Writer)},
+ * for a scrape endpoint to serve.
+ */
+public final class SolverMetrics implements SolverMetricsMBean {
+    /** seconds over which {@link #getSolvesPerSecond()} is averaged */
+    static final int RATE_SECONDS = 60;
+    static final String DOMAIN = "org.atxsm.kenken";
+
+    private static volatile SolverMetrics installed;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder[] outcomes = adders(SolveResult.Status.values().length);
+    private final LongAdder[] rulePasses = adders(SolveStats.Rule.values().length);
+    private final LongAdder[] ruleEliminations = adders(rulePasses.length);
+    private final LongAdder propagations = new LongAdder();
+    private final LongAdder branches = new LongAdder();
+    private final LongAdder backtracks = new LongAdder();
+    private final LongAdder restarts = new LongAdder();
+    private final LongAdder nogoods = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    // solves ended in each of the last RATE_SECONDS seconds, by second mod
+    // RATE_SECONDS; a slot is cleared when its second comes round again
+    private final AtomicLongArray rateSeconds = new AtomicLongArray(RATE_SECONDS);
+    private final AtomicLongArray rateCounts = new AtomicLongArray(RATE_SECONDS);
+    private final long createdSecond = second(System.nanoTime());
+
+    public SolverMetrics() {
+        for (int slot = 0; slot < RATE_SECONDS; slot++) {
+            rateSeconds.set(slot, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Starts recording every solve and cache lookup into metrics, in place
+     * of the registry installed before, if any
+     * @param metrics registry, or null to stop recording
+     */
+    public static void install(SolverMetrics metrics) {
+        installed = metrics;
+    }
+
+    /**
+     * @return registry being recorded into, or null if none
+     */
+    public static SolverMetrics installed() {
+        return installed;
+    }
+
+    /**
+     * Adds one solve with its outcome and counters
+     */
+    void recordSolve(SolveResult.Status status, SolveStats stats) {
+        outcomes[status.ordinal()].increment();
+        latency.record(stats.getPropagationNanos() + stats.getSearchNanos());
+        for (SolveStats.Rule rule : SolveStats.Rule.values()) {
+            rulePasses[rule.ordinal()].add(stats.getPasses(rule));
+            ruleEliminations[rule.ordinal()].add(stats.getEliminations(rule));
+        }
+        propagations.add(stats.getPropagations());
+        branches.add(stats.getBranches());
+        backtracks.add(stats.getBacktracks());
+        restarts.add(stats.getRestarts());
+        nogoods.add(stats.getNogoods());
+        countRate(System.nanoTime());
+    }
+
+    void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * @return solves with status recorded so far
+     */
+    public long getSolves(SolveResult.Status status) {
+        return outcomes[status.ordinal()].sum();
+    }
+
+    @Override
+    public long getSolves() {
+        long total = 0;
+        for (LongAdder outcome : outcomes) {
+            total += outcome.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getSolved() {
+        return getSolves(SolveResult.Status.SOLVED);
+    }
+
+    /**
+     * @return solves that found the puzzle has no solution
+     */
+    @Override
+    public long getContradictions() {
+        return getSolves(SolveResult.Status.CONTRADICTION);
+    }
+
+    /**
+     * @return solves that gave up at a deadline, budget or cancellation
+     */
+    @Override
+    public long getStopped() {
+        return getSolves(SolveResult.Status.UNSOLVED) + getSolves(SolveResult.Status.BUDGET_EXCEEDED);
+    }
+
+    /**
+     * @return solves ended per second over the last {@link #RATE_SECONDS}
+     *         whole seconds, or since the registry was created if that is
+     *         sooner; approximate while solves end as a second turns over
+     */
+    @Override
+    public double getSolvesPerSecond() {
+        final long now = second(System.nanoTime());
+        long total = 0;
+        for (int slot = 0; slot < RATE_SECONDS; slot++) {
+            final long second = rateSeconds.get(slot);
+            if (second < now && now - second <= RATE_SECONDS) {
+                total += rateCounts.get(slot);
+            }
+        }
+        final long seconds = Math.min(RATE_SECONDS, now - createdSecond);
+        return seconds == 0 ? 0 : (double) total / seconds;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        final long count = latency.getCount();
+        return count == 0 ? 0 : latency.getSum() / 1000.0 / count;
+    }
+
+    /**
+     * @param quantile from 0 to 1
+     * @return solve time at quantile, in nanoseconds, to within about 3%
+     */
+    public long getLatencyNanos(double quantile) {
+        return latency.getValueAt(quantile);
+    }
+
+    @Override
+    public long getP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(latency.getValueAt(0.5));
+    }
+
+    @Override
+    public long getP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(latency.getValueAt(0.99));
+    }
+
+    @Override
+    public long getP999Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(latency.getValueAt(0.999));
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latency.getMax());
+    }
+
+    public long getPasses(SolveStats.Rule rule) {
+        return rulePasses[rule.ordinal()].sum();
+    }
+
+    public long getEliminations(SolveStats.Rule rule) {
+        return ruleEliminations[rule.ordinal()].sum();
+    }
+
+    /**
+     * @return cage and line revisions by the rules
+     */
+    @Override
+    public long getPropagations() {
+        return propagations.sum();
+    }
+
+    /**
+     * @return values tried by the search
+     */
+    @Override
+    public long getSearchNodes() {
+        return branches.sum();
+    }
+
+    /**
+     * @return values tried by the search that led to a contradiction
+     */
+    @Override
+    public long getSearchContradictions() {
+        return backtracks.sum();
+    }
+
+    @Override
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return hits over lookups, or 0 before the first lookup
+     */
+    @Override
+    public double getCacheHitRate() {
+        final long hits = cacheHits.sum();
+        final long lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String getSnapshot() {
+        final StringWriter out = new StringWriter();
+        try {
+            writeText(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringWriter does not throw
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format, times
+     * in seconds; out is not flushed or closed
+     */
+    public void writeText(Writer out) throws IOException {
+        header(out, "kenken_solves_total", "counter", "Solves by outcome.");
+        for (SolveResult.Status status : SolveResult.Status.values()) {
+            sample(out, "kenken_solves_total", "status", status, outcomes[status.ordinal()].sum());
+        }
+        header(out, "kenken_solves_per_second", "gauge", "Solves per second over the last minute.");
+        sample(out, "kenken_solves_per_second", getSolvesPerSecond());
+        header(out, "kenken_solve_seconds", "summary", "Time in Solver.solve().");
+        final double[] quantiles = {0.5, 0.9, 0.99, 0.999, 1};
+        for (double quantile : quantiles) {
+            out.write("kenken_solve_seconds{quantile=\"" + quantile + "\"} "
+                    + latency.getValueAt(quantile) / 1e9 + "\n");
+        }
+        sample(out, "kenken_solve_seconds_sum", latency.getSum() / 1e9);
+        sample(out, "kenken_solve_seconds_count", latency.getCount());
+        header(out, "kenken_rule_passes_total", "counter", "Cages, lines or cells each rule was applied to.");
+        for (SolveStats.Rule rule : SolveStats.Rule.values()) {
+            sample(out, "kenken_rule_passes_total", "rule", rule, rulePasses[rule.ordinal()].sum());
+        }
+        header(out, "kenken_rule_eliminations_total", "counter", "Candidates removed by each rule.");
+        for (SolveStats.Rule rule : SolveStats.Rule.values()) {
+            sample(out, "kenken_rule_eliminations_total", "rule", rule, ruleEliminations[rule.ordinal()].sum());
+        }
+        header(out, "kenken_propagations_total", "counter", "Cage and line revisions.");
+        sample(out, "kenken_propagations_total", propagations.sum());
+        header(out, "kenken_search_nodes_total", "counter", "Values tried by the search.");
+        sample(out, "kenken_search_nodes_total", branches.sum());
+        header(out, "kenken_search_contradictions_total", "counter", "Values tried that led to a contradiction.");
+        sample(out, "kenken_search_contradictions_total", backtracks.sum());
+        header(out, "kenken_restarts_total", "counter", "Restarts of the search.");
+        sample(out, "kenken_restarts_total", restarts.sum());
+        header(out, "kenken_nogoods_total", "counter", "Nogoods learned at restarts.");
+        sample(out, "kenken_nogoods_total", nogoods.sum());
+        header(out, "kenken_cache_lookups_total", "counter", "Solution cache lookups by result.");
+        sample(out, "kenken_cache_lookups_total", "result", "hit", cacheHits.sum());
+        sample(out, "kenken_cache_lookups_total", "result", "miss", cacheMisses.sum());
+        header(out, "kenken_cache_hit_ratio", "gauge", "Solution cache hits over lookups.");
+        sample(out, "kenken_cache_hit_ratio", getCacheHitRate());
+    }
+
+    /**
+     * Registers this registry with the platform MBean server as
+     * <code>org.atxsm.kenken:type=SolverMetrics,name=</code>name
+     * @throws IllegalStateException if the name is taken or invalid
+     */
+    public void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register metrics " + name, e);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if nothing is registered under name
+     */
+    public void unregister(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister metrics " + name, e);
+        }
+    }
+
+    static ObjectName objectName(String name) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=SolverMetrics,name=" + ObjectName.quote(name));
+    }
+
+    private void countRate(long nanos) {
+        final long second = second(nanos);
+        final int slot = (int) Math.floorMod(second, (long) RATE_SECONDS);
+        final long previous = rateSeconds.get(slot);
+        if (previous != second && rateSeconds.compareAndSet(slot, previous, second)) {
+            rateCounts.set(slot, 0);
+        }
+        rateCounts.incrementAndGet(slot);
+    }
+
+    private static long second(long nanos) {
+        return Math.floorDiv(nanos, 1000000000L);
+    }
+
+    private static LongAdder[] adders(int count) {
+        final LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static void header(Writer out, String name, String type, String help) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void sample(Writer out, String name, double value) throws IOException {
+        out.write(name + " " + value + "\n");
+    }
+
+    private static void sample(Writer out, String name, long value) throws IOException {
+        out.write(name + " " + value + "\n");
+    }
+
+    private static void sample(Writer out, String name, String label, Object labelValue, long value)
+            throws IOException {
+        out.write(name + "{" + label + "=\"" + labelValue.toString().toLowerCase(Locale.ROOT) + "\"} "
+                + value + "\n");
+    }
+}
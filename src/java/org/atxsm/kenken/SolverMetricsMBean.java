@@ -0,0 +1,45 @@
+package org.atxsm.kenken;
+
+/**
+ * JMX view of {@link SolverMetrics}; times are in microseconds.
+ */
+public interface SolverMetricsMBean {
+    long getSolves();
+
+    long getSolved();
+
+    long getContradictions();
+
+    long getStopped();
+
+    double getSolvesPerSecond();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+
+    long getPropagations();
+
+    long getSearchNodes();
+
+    long getSearchContradictions();
+
+    long getRestarts();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRate();
+
+    /**
+     * @return every metric in the text format of {@link SolverMetrics#writeText(java.io.Writer)}
+     */
+    String getSnapshot();
+}
@@ -0,0 +1,210 @@
+package org.atxsm.kenken;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A game in progress: the values a player has placed, the candidates the
+ * deduction rules leave given those values, and the placed values that
+ * are in conflict.
+ * <p>
+ * Each placement is applied on top of the previous ones and remembers its
+ * marks in the solver's trails. Erasing a value undoes the trails back to
+ * its placement and replays the placements made after it, so a move costs
+ * one round of propagation rather than a full solve.
+ * <p>
+ * A placed value is in conflict if another placed value in its row or
+ * column is the same, if its cage is full and misses the target, or if
+ * the rules find no solution with it and the values placed before it.
+ * Rejected values are left out of the candidates.
+ * <p>
+ * Not thread safe; use one session per game.
+ */
+public class SolverSession {
+    private final int size;
+    private final Solver solver;
+    private final Solution solution;
+    private final Puzzle.Cage[] cages;
+    private final int[] cellCages;
+
+    private final int[] placed;        // 0 when empty
+    private final int[] rowCounts;     // placed values per row, at row * size + value - 1
+    private final int[] colCounts;     // placed values per column, at col * size + value - 1
+    private final int[] cageFilled;    // placed cells per cage
+    private final boolean[] rejected;  // placed but contradicted by the rules
+
+    // placements in the order they were applied, with the trail marks before each
+    private final int[] moveCells;
+    private final int[] moveSolutionMarks;
+    private final int[] moveCageMarks;
+    private int moves;
+
+    public SolverSession(Puzzle puzzle) {
+        this.size = puzzle.getSize();
+        this.solver = new Solver(puzzle);
+        this.solution = solver.getSolution();
+        this.cages = puzzle.getCages().toArray(new Puzzle.Cage[puzzle.getCageCount()]);
+        this.cellCages = new int[size * size];
+        for (int c = 0; c < cages.length; c++) {
+            for (int i = 0; i < cages[c].rowsCols.length; i += 2) {
+                cellCages[cages[c].rowsCols[i] * size + cages[c].rowsCols[i + 1]] = c;
+            }
+        }
+        this.placed = new int[size * size];
+        this.rowCounts = new int[size * size];
+        this.colCounts = new int[size * size];
+        this.cageFilled = new int[cages.length];
+        this.rejected = new boolean[size * size];
+        this.moveCells = new int[size * size];
+        this.moveSolutionMarks = new int[size * size];
+        this.moveCageMarks = new int[size * size];
+        solver.propagate();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Places value at row, col, replacing any value placed there before
+     */
+    public void place(int row, int col, int value) {
+        if (value < 1 || value > size) {
+            throw new IllegalArgumentException("value must be between 1 and " + size);
+        }
+        final int cell = index(row, col);
+        if (placed[cell] == value) {
+            return;
+        }
+        if (placed[cell] != 0) {
+            erase(row, col);
+        }
+        placed[cell] = value;
+        count(cell, 1);
+        moveCells[moves++] = cell;
+        apply(moves - 1);
+    }
+
+    /**
+     * Removes the value placed at row, col, if any
+     */
+    public void erase(int row, int col) {
+        final int cell = index(row, col);
+        if (placed[cell] == 0) {
+            return;
+        }
+        int move = moves - 1;
+        while (moveCells[move] != cell) {
+            move--;
+        }
+        solver.undo(moveSolutionMarks[move], moveCageMarks[move]);
+        count(cell, -1);
+        placed[cell] = 0;
+        rejected[cell] = false;
+        System.arraycopy(moveCells, move + 1, moveCells, move, moves - move - 1);
+        moves--;
+        for (int replay = move; replay < moves; replay++) {
+            apply(replay);
+        }
+    }
+
+    /**
+     * @return value placed at row, col, or 0 if empty
+     */
+    public int getPlaced(int row, int col) {
+        return placed[index(row, col)];
+    }
+
+    /**
+     * @return bitmask of the values still possible at row, col, bit k for
+     *         value k+1; 0 if the placed values already have no solution
+     */
+    public long candidateMask(int row, int col) {
+        return solution.candidateMask(row, col);
+    }
+
+    /**
+     * @return true if the value placed at row, col is in conflict
+     */
+    public boolean hasConflict(int row, int col) {
+        return hasConflict(index(row, col));
+    }
+
+    /**
+     * @return indexes (row * size + col) of the cells in conflict, in order
+     */
+    public List<Integer> getConflicts() {
+        final List<Integer> conflicts = new ArrayList<Integer>();
+        for (int cell = 0; cell < placed.length; cell++) {
+            if (hasConflict(cell)) {
+                conflicts.add(cell);
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * @return true if every cell has a value and none is in conflict
+     */
+    public boolean isSolved() {
+        if (moves < placed.length) {
+            return false;
+        }
+        for (int cell = 0; cell < placed.length; cell++) {
+            if (hasConflict(cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the placement made by move to the candidates, undoing it
+     * again if the rules find no solution
+     */
+    private void apply(int move) {
+        final int cell = moveCells[move];
+        moveSolutionMarks[move] = solution.mark();
+        moveCageMarks[move] = solver.cageMark();
+        rejected[cell] = !solver.assign(cell, placed[cell]);
+        if (rejected[cell]) {
+            solver.undo(moveSolutionMarks[move], moveCageMarks[move]);
+        }
+    }
+
+    private void count(int cell, int delta) {
+        final int value = placed[cell];
+        rowCounts[cell / size * size + value - 1] += delta;
+        colCounts[cell % size * size + value - 1] += delta;
+        cageFilled[cellCages[cell]] += delta;
+    }
+
+    private boolean hasConflict(int cell) {
+        final int value = placed[cell];
+        if (value == 0) {
+            return false;
+        }
+        if (rejected[cell]
+                || rowCounts[cell / size * size + value - 1] > 1
+                || colCounts[cell % size * size + value - 1] > 1) {
+            return true;
+        }
+        final Puzzle.Cage cage = cages[cellCages[cell]];
+        return cageFilled[cellCages[cell]] == cage.rowsCols.length / 2 && !reachesTarget(cage);
+    }
+
+    private boolean reachesTarget(Puzzle.Cage cage) {
+        final int[] values = new int[cage.rowsCols.length / 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = placed[cage.rowsCols[2 * i] * size + cage.rowsCols[2 * i + 1]];
+        }
+        return cage.operator.reaches(values, cage.target);
+    }
+
+    private int index(int row, int col) {
+        if (row < 0 || row >= size || col < 0 || col >= size) {
+            throw new ArrayIndexOutOfBoundsException("(" + row + "," + col + ") is outside " + size + "x" + size);
+        }
+        return row * size + col;
+    }
+}
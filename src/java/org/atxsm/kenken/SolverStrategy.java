@@ -0,0 +1,47 @@
+package org.atxsm.kenken;
+
+/**
+ * A way of solving one puzzle. Backends differ in how they search, not
+ * in what they find: any of them may be used wherever a solution is
+ * wanted, and compared against each other on the same puzzles.
+ */
+public interface SolverStrategy {
+    /**
+     * @return true if all values found; false if the puzzle has no solution
+     */
+    boolean solve();
+
+    /**
+     * @return the solved grid after a successful {@link #solve()}
+     */
+    Solution getSolution();
+
+    /**
+     * The available backends
+     */
+    enum Backend {
+        /** {@link Solver}: deduction rules with backtracking search */
+        PROPAGATION {
+            @Override
+            public SolverStrategy create(Puzzle puzzle) {
+                return new Solver(puzzle);
+            }
+        },
+        /** {@link DancingLinksSolver}: exact cover with cages checked during the search */
+        DANCING_LINKS {
+            @Override
+            public SolverStrategy create(Puzzle puzzle) {
+                return new DancingLinksSolver(puzzle);
+            }
+        },
+        /** {@link CdclSolver}: clause learning on the {@link CnfEncoder} formula */
+        CDCL {
+            @Override
+            public SolverStrategy create(Puzzle puzzle) {
+                return new CdclSolver(puzzle);
+            }
+        };
+
+        public abstract SolverStrategy create(Puzzle puzzle);
+    }
+}
@@ -0,0 +1,77 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.*;
+
+public class BatchSolverTest {
+    private static final Puzzle SOLVABLE = new Puzzle.Builder(3)
+            .addCage(1, DIFFERENCE, 0,0, 0,1)
+            .addCage(1, SUM, 1, 0)
+            .addCage(2, PRODUCT, 1, 1)
+            .addCage(-2, DIFFERENCE, 0,2, 1,2)
+            .addCage(2, DIFFERENCE, 2,0, 2,1)
+            .addCage(2, SUM, 2,2)
+            .build();
+    private static final Puzzle NEEDS_SEARCH = new Puzzle.Builder(3)
+            .addCage(6, SUM, 0,0, 0,1, 0,2)
+            .addCage(6, SUM, 1,0, 1,1, 1,2)
+            .addCage(6, PRODUCT, 2,0, 2,1, 2,2)
+            .build();
+
+    @Test
+    public void testInOrder() {
+        final ExecutorService executor = new ForkJoinPool(4);
+        try {
+            final List<SolveResult> results = new BatchSolver(executor, 10, TimeUnit.SECONDS)
+                    .solveInOrder(Arrays.asList(SOLVABLE, SolverTest.UNSOLVABLE, NEEDS_SEARCH, SOLVABLE));
+            assertEquals(4, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i, results.get(i).getIndex());
+            }
+            assertEquals(SolveResult.Status.SOLVED, results.get(0).getStatus());
+            assertEquals(SolveResult.Status.CONTRADICTION, results.get(1).getStatus());
+            assertEquals(SolveResult.Status.SOLVED, results.get(2).getStatus());
+            assertEquals(new Solution(3).setAll(
+                    2,3,1,
+                    1,2,3,
+                    3,1,2),
+                    results.get(3).getSolution());
+            assertNotSame(results.get(0).getSolution(), results.get(3).getSolution());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsCompleted() {
+        final ExecutorService executor = new ForkJoinPool(2);
+        try {
+            final Iterator<SolveResult> results = new BatchSolver(executor, 10, TimeUnit.SECONDS)
+                    .solveAsCompleted(Collections.nCopies(20, SOLVABLE).stream());
+            final Set<Integer> indexes = new HashSet<Integer>();
+            while (results.hasNext()) {
+                final SolveResult result = results.next();
+                assertEquals(SolveResult.Status.SOLVED, result.getStatus());
+                indexes.add(result.getIndex());
+            }
+            assertEquals(20, indexes.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        final SolveResult result = BatchSolver.solve(7, NEEDS_SEARCH, 0);
+        assertEquals(7, result.getIndex());
+        assertEquals(SolveResult.Status.BUDGET_EXCEEDED, result.getStatus());
+        assertFalse(result.getSolution().isComplete());
+    }
+}
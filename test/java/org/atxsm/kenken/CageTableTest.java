@@ -0,0 +1,63 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.*;
+
+public class CageTableTest {
+    @Test
+    public void testSumInRow() {
+        // 1+2+3 in any order
+        final CageTable table = CageTable.forCage(new Puzzle.Cage(6, SUM, 0,0, 0,1, 0,2), 4);
+        assertNotNull(table);
+        assertEquals(6, table.getCount());
+    }
+
+    @Test
+    public void testProductAcrossRows() {
+        // only the diagonal cells may repeat: 2*1*2 and 1*4*1
+        final CageTable table = CageTable.forCage(new Puzzle.Cage(4, PRODUCT, 0,0, 0,1, 1,1), 4);
+        assertNotNull(table);
+        assertEquals(2, table.getCount());
+    }
+
+    @Test
+    public void testSharedByShape() {
+        final CageTable table = CageTable.forCage(new Puzzle.Cage(7, SUM, 0,0, 1,0, 2,0), 5);
+        assertSame(table, CageTable.forCage(new Puzzle.Cage(7, SUM, 2,3, 3,3, 4,3), 5));
+        assertNotSame(table, CageTable.forCage(new Puzzle.Cage(7, SUM, 0,0, 1,0, 2,0), 6));
+    }
+
+    @Test
+    public void testBoundedCache() {
+        final Puzzle.Cage cage = new Puzzle.Cage(15, SUM, 0,0, 0,1, 0,2, 1,2);
+        final CageTable table = CageTable.forCage(cage, 7);
+        assertTrue(CageTable.cachedBytes() > 0);
+        assertTrue(CageTable.cachedBytes() <= CageTable.MAX_CACHED_BYTES);
+
+        CageTable.trimCache(0);
+        assertEquals(0, CageTable.cachedBytes());
+        final CageTable rebuilt = CageTable.forCage(cage, 7);
+        assertNotSame(table, rebuilt);
+        assertEquals(table.getCount(), rebuilt.getCount());
+        assertTrue(CageTable.cachedBytes() > 0);
+    }
+
+    @Test
+    public void testDeadline() {
+        final Puzzle.Cage cage = new Puzzle.Cage(25, SUM, 0,0, 0,1, 0,2, 0,3, 0,4);
+        CageTable.trimCache(0);
+        assertNull(CageTable.forCage(cage, 9, System.nanoTime()));
+        assertEquals(0, CageTable.cachedBytes()); // given up on, not too large
+        assertNotNull(CageTable.forCage(cage, 9, System.nanoTime() + TimeUnit.MINUTES.toNanos(1)));
+    }
+
+    @Test
+    public void testSmallCages() {
+        assertNull(CageTable.forCage(new Puzzle.Cage(3, SUM, 0,0, 0,1), 4));
+        assertNull(CageTable.forCage(new Puzzle.Cage(2, DIFFERENCE, 0,0, 0,1), 4));
+    }
+}
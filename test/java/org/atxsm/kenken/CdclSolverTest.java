@@ -0,0 +1,88 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CdclSolverTest {
+
+    @Test
+    public void testSolveExample6() {
+        final SolverStrategy solver = SolverStrategy.Backend.CDCL.create(SolverTest.EXAMPLE6);
+        assertTrue(solver.solve());
+        assertEquals(SolverTest.EXAMPLE6_SOLUTION, solver.getSolution());
+    }
+
+    @Test
+    public void testNoSolution() {
+        final CdclSolver solver = new CdclSolver(SolverTest.UNSOLVABLE);
+        assertFalse(solver.solve());
+        assertFalse(solver.getSolution().isComplete());
+    }
+
+    @Test
+    public void testPigeonhole() {
+        // three pigeons in two holes: variable 2 * pigeon + hole + 1
+        final SatSolver sat = new SatSolver(6);
+        for (int pigeon = 0; pigeon < 3; pigeon++) {
+            assertTrue(sat.addClause(2 * pigeon + 1, 2 * pigeon + 2));
+        }
+        for (int hole = 1; hole <= 2; hole++) {
+            for (int a = 0; a < 3; a++) {
+                for (int b = a + 1; b < 3; b++) {
+                    assertTrue(sat.addClause(-(2 * a + hole), -(2 * b + hole)));
+                }
+            }
+        }
+        assertFalse(sat.solve());
+        assertTrue(sat.getConflicts() > 0);
+    }
+
+    @Test
+    public void testUnits() {
+        final SatSolver sat = new SatSolver(3);
+        assertTrue(sat.addClause(1));
+        assertTrue(sat.addClause(-1, 2));
+        assertTrue(sat.addClause(-2, 3, 3));
+        assertTrue(sat.addClause(1, -1)); // always holds
+        assertTrue(sat.solve());
+        assertTrue(sat.value(1) && sat.value(2) && sat.value(3));
+        assertFalse(new SatSolver(1).addClause());
+    }
+
+    @Test
+    public void testBackendsAgree() {
+        final Random random = new Random(23);
+        for (int size = 1; size <= 8; size++) {
+            final PuzzleGenerator generator = new PuzzleGenerator(size, 1, 5, 3, 1);
+            for (int i = 0; i < 5; i++) {
+                final Puzzle puzzle = generator.generate(random);
+                final SolverStrategy propagation = SolverStrategy.Backend.PROPAGATION.create(puzzle);
+                final SolverStrategy cdcl = SolverStrategy.Backend.CDCL.create(puzzle);
+                assertTrue(propagation.solve());
+                assertTrue(cdcl.solve());
+                assertEquals(propagation.getSolution(), cdcl.getSolution());
+            }
+        }
+    }
+
+    @Test
+    public void testHardCandidates() {
+        // candidates that need learned clauses minimized without losing literals
+        final Random random = new Random(977 * 5 + 1);
+        final PuzzleGenerator generator = new PuzzleGenerator(5, 0, 1, 1, 1);
+        for (int i = 0; i < 40; i++) {
+            final Puzzle puzzle = generator.candidate(random);
+            final boolean solvable = new Solver(puzzle).solve();
+            final CdclSolver cdcl = new CdclSolver(puzzle);
+            assertEquals(solvable, cdcl.solve());
+            if (solvable) {
+                SolverTest.assertSolves(puzzle, cdcl.getSolution());
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.*;
+
+public class CnfEncoderTest {
+    /**
+     * @return true if solution, with auxiliary variables chosen by a SAT
+     *         solver, satisfies the formula of puzzle
+     */
+    private static boolean satisfiedBy(Puzzle puzzle, Solution solution) {
+        final CnfEncoder encoder = new CnfEncoder(puzzle);
+        final SatSolver sat = new SatSolver(encoder.getVariableCount());
+        final int size = puzzle.getSize();
+        boolean satisfiable = true;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                satisfiable &= sat.addClause(encoder.variable(row, col, solution.valueOrZero(row, col)));
+            }
+        }
+        for (int[] clause : encoder.getClauses()) {
+            satisfiable &= sat.addClause(clause);
+        }
+        return satisfiable && sat.solve();
+    }
+
+    @Test
+    public void testVariables() {
+        final CnfEncoder encoder = new CnfEncoder(SolverTest.EXAMPLE6);
+        assertEquals(1, encoder.variable(0, 0, 1));
+        assertEquals(6, encoder.variable(0, 0, 6));
+        assertEquals(7, encoder.variable(0, 1, 1));
+        assertEquals(216, encoder.variable(5, 5, 6));
+        assertTrue(encoder.getVariableCount() > 216); // one per assignment of the larger cages
+    }
+
+    @Test
+    public void testDimacs() throws IOException {
+        final Puzzle puzzle = new Puzzle.Builder(2)
+                .addCage(1, DIFFERENCE, 0,0, 0,1)
+                .addCage(2, RATIO, 1,0, 1,1)
+                .build();
+        final CnfEncoder encoder = new CnfEncoder(puzzle);
+        final StringWriter out = new StringWriter();
+        encoder.writeDimacs(out);
+        final String[] lines = out.toString().split("\n");
+        assertTrue(lines[0].startsWith("c "));
+        assertEquals("p cnf 8 " + encoder.getClauseCount(), lines[1]);
+        assertEquals(2 + encoder.getClauseCount(), lines.length);
+        assertEquals("1 2 0", lines[2]); // (0,0) is 1 or 2
+        for (int i = 2; i < lines.length; i++) {
+            assertTrue(lines[i], lines[i].endsWith(" 0"));
+        }
+    }
+
+    @Test
+    public void testSolutionSatisfies() {
+        assertTrue(satisfiedBy(SolverTest.EXAMPLE6, SolverTest.EXAMPLE6_SOLUTION));
+        final Solution other = new Solution(6, new int[]{
+                1, 2, 3, 4, 5, 6,
+                2, 3, 4, 5, 6, 1,
+                3, 4, 5, 6, 1, 2,
+                4, 5, 6, 1, 2, 3,
+                5, 6, 1, 2, 3, 4,
+                6, 1, 2, 3, 4, 5});
+        assertFalse(satisfiedBy(SolverTest.EXAMPLE6, other));
+    }
+
+    @Test
+    public void testCageWithoutTable() {
+        // a 4x4 product cage past the table limits, encoded as a chain of partial products
+        final int[] values = PuzzleGenerator.latinSquare(16, new Random(4));
+        final int[] block = new int[32];
+        long product = 1;
+        for (int i = 0; i < 16; i++) {
+            block[2 * i] = i / 4;
+            block[2 * i + 1] = i % 4;
+            product *= values[(i / 4) * 16 + i % 4];
+        }
+        final Puzzle.Builder builder = new Puzzle.Builder(16).addCage(product, PRODUCT, block);
+        for (int row = 0; row < 16; row++) {
+            for (int col = 0; col < 16; col++) {
+                if (row >= 4 || col >= 4) {
+                    builder.addCage(values[row * 16 + col], SUM, row, col);
+                }
+            }
+        }
+        final Puzzle puzzle = builder.build();
+        assertNull(CageTable.forCage(puzzle.getCage(0), 16));
+        final CdclSolver solver = new CdclSolver(puzzle);
+        assertTrue(solver.solve());
+        assertEquals(new Solution(16, values), solver.getSolution());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLongDifference() {
+        new CnfEncoder(new Puzzle.Builder(3)
+                .addCage(1, DIFFERENCE, 0,0, 0,1, 0,2)
+                .addCage(6, SUM, 1,0, 1,1, 1,2)
+                .addCage(6, SUM, 2,0, 2,1, 2,2)
+                .build());
+    }
+}
@@ -0,0 +1,42 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DancingLinksSolverTest {
+
+    @Test
+    public void testSolveExample6() {
+        final SolverStrategy solver = SolverStrategy.Backend.DANCING_LINKS.create(SolverTest.EXAMPLE6);
+        assertTrue(solver.solve());
+        assertEquals(SolverTest.EXAMPLE6_SOLUTION, solver.getSolution());
+    }
+
+    @Test
+    public void testNoSolution() {
+        final DancingLinksSolver solver = new DancingLinksSolver(SolverTest.UNSOLVABLE);
+        assertFalse(solver.solve());
+        assertFalse(solver.getSolution().isComplete());
+    }
+
+    @Test
+    public void testBackendsAgree() {
+        final Random random = new Random(15);
+        for (int size = 1; size <= 8; size++) {
+            final PuzzleGenerator generator = new PuzzleGenerator(size, 1, 5, 3, 1);
+            for (int i = 0; i < 5; i++) {
+                final Puzzle puzzle = generator.generate(random);
+                final SolverStrategy propagation = SolverStrategy.Backend.PROPAGATION.create(puzzle);
+                final SolverStrategy dancingLinks = SolverStrategy.Backend.DANCING_LINKS.create(puzzle);
+                assertTrue(propagation.solve());
+                assertTrue(dancingLinks.solve());
+                assertEquals(propagation.getSolution(), dancingLinks.getSolution());
+            }
+        }
+    }
+}
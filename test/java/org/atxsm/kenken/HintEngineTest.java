@@ -0,0 +1,96 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.*;
+
+public class HintEngineTest {
+
+    @Test
+    public void testIdentityFirst() {
+        final Puzzle puzzle = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,1, 1,1)
+                .addCage(2, SUM, 0,0)
+                .addCage(1, SUM, 1,0)
+                .build();
+        final HintEngine.Hint hint = new HintEngine(puzzle).next(new Solution(2));
+        assertEquals(SolveStats.Rule.IDENTITY, hint.getRule());
+        assertEquals(2, hint.getValue());
+        assertEquals("cell (0,0) must be 2 because of the 2 cage", hint.toString());
+    }
+
+    @Test
+    public void testPairs() {
+        final Solution grid = new Solution(6);
+        final HintEngine.Hint hint = new HintEngine(SolverTest.EXAMPLE6).next(grid);
+        assertEquals(SolveStats.Rule.PAIRS, hint.getRule());
+        assertEquals(0, hint.getValue());
+        assertEquals("cell (0,0) cannot be 1 or 2 or 3 or 4 because of the 11+ cage", hint.toString());
+        assertTrue(hint.applyTo(grid));
+        assertEquals(Solution.bit(5) | Solution.bit(6), grid.candidateMask(0, 0));
+    }
+
+    @Test
+    public void testUniqueness() {
+        final Solution grid = new Solution(6).setAll(5); // set without eliminating
+        final HintEngine.Hint hint = new HintEngine(SolverTest.EXAMPLE6).next(grid);
+        assertEquals(SolveStats.Rule.UNIQUENESS, hint.getRule());
+        assertEquals("cell (0,1) cannot be 5 because (0,0) is 5", hint.toString());
+    }
+
+    @Test
+    public void testLines() {
+        final Puzzle puzzle = new Puzzle.Builder(3)
+                .addCage(6, SUM, 0,0, 0,1, 0,2)
+                .addCage(6, SUM, 1,0, 1,1, 1,2)
+                .addCage(6, PRODUCT, 2,0, 2,1, 2,2)
+                .build();
+        final Solution grid = new Solution(3);
+        grid.markImpossible(0, 0, 1);
+        grid.markImpossible(0, 1, 1);
+        final HintEngine.Hint hint = new HintEngine(puzzle).next(grid);
+        assertEquals(SolveStats.Rule.LINES, hint.getRule());
+        assertEquals("cell (0,2) must be 1 because it is the only place for 1 in row 0", hint.toString());
+    }
+
+    @Test
+    public void testNakedPair() {
+        final Puzzle puzzle = new Puzzle.Builder(4)
+                .addCage(10, SUM, 0,0, 1,0, 2,0, 3,0)
+                .addCage(10, SUM, 0,1, 1,1, 2,1, 3,1)
+                .addCage(10, SUM, 0,2, 1,2, 2,2, 3,2)
+                .addCage(10, SUM, 0,3, 1,3, 2,3, 3,3)
+                .build();
+        final Solution grid = new Solution(4);
+        grid.restrict(0, 0, Solution.bit(1) | Solution.bit(2));
+        grid.restrict(0, 1, Solution.bit(1) | Solution.bit(2));
+        final HintEngine.Hint hint = new HintEngine(puzzle).next(grid);
+        assertEquals(SolveStats.Rule.LINES, hint.getRule());
+        assertEquals("cell (0,2) cannot be 1 or 2 because other cells of row 0 must hold them", hint.toString());
+    }
+
+    @Test
+    public void testTablesReused() {
+        final HintEngine engine = new HintEngine(SolverTest.EXAMPLE6);
+        CageTable.trimCache(0);
+        assertNotNull(engine.next(new Solution(6)));
+        assertEquals(0, CageTable.cachedBytes()); // nothing looked up or built again
+    }
+
+    @Test
+    public void testHintsAreSound() {
+        final HintEngine engine = new HintEngine(SolverTest.EXAMPLE6);
+        final Solution grid = new Solution(6);
+        int hints = 0;
+        for (HintEngine.Hint hint = engine.next(grid); hint != null; hint = engine.next(grid)) {
+            final int expected = SolverTest.EXAMPLE6_SOLUTION.valueOrZero(hint.getRow(), hint.getCol());
+            assertEquals(hint.toString(), 0, hint.getRemoved() & Solution.bit(expected));
+            assertTrue(hint.applyTo(grid));
+            hints++;
+        }
+        assertTrue(hints > 0);
+        assertFalse(grid.hasContradiction());
+        assertEquals(SolverTest.EXAMPLE6_SOLUTION, grid); // the rules alone solve it
+    }
+}
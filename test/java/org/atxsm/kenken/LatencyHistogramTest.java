@@ -0,0 +1,74 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        long previous = -1;
+        for (long value : new long[]{0, 1, 63, 64, 65, 127, 128, 1000, 123456789, Long.MAX_VALUE}) {
+            final int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value + " below its bucket", LatencyHistogram.lowest(bucket) <= value);
+            if (bucket + 1 < (62 - 5 + 2) * LatencyHistogram.SUB_BUCKETS) {
+                assertTrue(value + " above its bucket", LatencyHistogram.lowest(bucket + 1) > value);
+            }
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+        assertEquals(64, LatencyHistogram.bucket(64));
+        assertEquals(64, LatencyHistogram.bucket(65));
+        // buckets are at most 1/32 of their values wide
+        final long value = 1000000;
+        final int bucket = LatencyHistogram.bucket(value);
+        assertTrue(LatencyHistogram.lowest(bucket + 1) - LatencyHistogram.lowest(bucket) <= value / 32);
+    }
+
+    @Test
+    public void testQuantiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAt(0.5));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000, histogram.getSum());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000, histogram.getValueAt(0.5), 500000 / 32);
+        assertEquals(990000, histogram.getValueAt(0.99), 990000 / 32);
+        assertEquals(1000000, histogram.getValueAt(1));
+        assertEquals(1000, histogram.getValueAt(0), 1000 / 32);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = t * 100000;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(base + i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(399999, histogram.getMax());
+        assertEquals(200000, histogram.getValueAt(0.5), 200000 / 32);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        new LatencyHistogram().record(-1);
+    }
+}
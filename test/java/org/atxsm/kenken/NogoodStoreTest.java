@@ -0,0 +1,96 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NogoodStoreTest {
+    private static final int SIZE = 4;
+
+    private static int literal(int row, int col, int value) {
+        return (row * SIZE + col) * SIZE + value - 1;
+    }
+
+    private static void set(NogoodStore store, Solution solution, int row, int col, int value) {
+        solution.restrict(row, col, Solution.bit(value));
+        store.propagate(solution, row * SIZE + col, value);
+    }
+
+    @Test
+    public void testPrunesLastLiteral() {
+        final NogoodStore store = new NogoodStore(SIZE, 16);
+        final Solution solution = new Solution(SIZE);
+        store.add(new int[]{literal(0, 0, 1), literal(1, 1, 2), literal(2, 3, 4)}, 3, solution);
+        assertEquals(1, store.size());
+
+        set(store, solution, 0, 0, 1);
+        assertTrue((solution.candidateMask(1, 1) & Solution.bit(2)) != 0); // two literals left
+        set(store, solution, 2, 3, 4);
+        assertEquals(0, solution.candidateMask(1, 1) & Solution.bit(2));
+        assertFalse(solution.hasContradiction());
+    }
+
+    @Test
+    public void testWatchesSurviveUndo() {
+        final NogoodStore store = new NogoodStore(SIZE, 16);
+        final Solution solution = new Solution(SIZE);
+        store.add(new int[]{literal(0, 0, 1), literal(1, 1, 2)}, 2, solution);
+        final int mark = solution.mark();
+        set(store, solution, 0, 0, 1);
+        assertEquals(0, solution.candidateMask(1, 1) & Solution.bit(2));
+        solution.undo(mark);
+
+        set(store, solution, 1, 1, 2);
+        assertEquals(0, solution.candidateMask(0, 0) & Solution.bit(1));
+    }
+
+    @Test
+    public void testAppliedAtOnce() {
+        final NogoodStore store = new NogoodStore(SIZE, 16);
+        final Solution solution = new Solution(SIZE);
+        store.add(new int[]{literal(3, 2, 3)}, 1, solution);
+        assertEquals(0, solution.candidateMask(3, 2) & Solution.bit(3));
+
+        solution.restrict(0, 1, Solution.bit(2));
+        store.add(new int[]{literal(0, 1, 2), literal(2, 0, 4)}, 2, solution);
+        assertEquals(0, solution.candidateMask(2, 0) & Solution.bit(4));
+        assertEquals(0, store.size());
+        assertEquals(2, store.getLearned());
+
+        store.add(new int[]{literal(0, 1, 2)}, 1, solution);
+        assertTrue(solution.hasContradiction());
+    }
+
+    @Test
+    public void testConflict() {
+        final NogoodStore store = new NogoodStore(SIZE, 16);
+        final Solution solution = new Solution(SIZE);
+        store.add(new int[]{literal(0, 0, 1), literal(1, 1, 2)}, 2, solution);
+        solution.restrict(1, 1, Solution.bit(2));
+        solution.restrict(0, 0, Solution.bit(1));
+        store.propagate(solution, 0, 1);
+        assertTrue(solution.hasContradiction());
+    }
+
+    @Test
+    public void testReduceKeepsActive() {
+        final NogoodStore store = new NogoodStore(SIZE, 4);
+        final Solution solution = new Solution(SIZE);
+        for (int value = 1; value <= SIZE; value++) {
+            store.add(new int[]{literal(0, 0, value), literal(3, 3, value)}, 2, solution);
+            store.add(new int[]{literal(0, 1, value), literal(3, 2, value)}, 2, solution);
+        }
+        assertEquals(8, store.size());
+        set(store, solution, 0, 0, 1);
+        set(store, solution, 0, 1, 2);
+        store.reduce();
+        assertEquals(2, store.size());
+
+        // the nogoods that pruned are kept and still watched
+        final Solution other = new Solution(SIZE);
+        set(store, other, 3, 3, 1);
+        assertEquals(0, other.candidateMask(0, 0) & Solution.bit(1));
+        set(store, other, 3, 2, 3);
+        assertTrue((other.candidateMask(0, 1) & Solution.bit(3)) != 0);
+    }
+}
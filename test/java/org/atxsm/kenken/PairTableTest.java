@@ -0,0 +1,68 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.*;
+
+public class PairTableTest {
+    private static long mask(int... values) {
+        long mask = 0;
+        for (int value : values) {
+            mask |= Solution.bit(value);
+        }
+        return mask;
+    }
+
+    @Test
+    public void testMatchesOperator() {
+        for (Operator operator : Operator.values()) {
+            for (int target = -1; target <= 13; target++) {
+                final PairTable table = PairTable.forTarget(operator, target, 6);
+                for (int b = 1; b <= 6; b++) {
+                    for (int a = 1; a <= 6; a++) {
+                        final boolean reaches = operator.reaches(a, b, target);
+                        assertEquals(reaches, (table.supported(Solution.bit(b), false) & Solution.bit(a)) != 0);
+                        assertEquals(reaches && a != b,
+                                (table.supported(Solution.bit(b), true) & Solution.bit(a)) != 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSupported() {
+        final PairTable table = PairTable.forCage(new Puzzle.Cage(2, RATIO, 0,0, 0,1), 6);
+        assertEquals(mask(1, 4, 6), table.supported(mask(2, 3), true));
+        assertEquals(mask(2, 3, 6), table.supported(mask(1, 3, 6), true));
+        assertEquals(0, table.supported(mask(5), true));
+        assertEquals(0, table.supported(0, true));
+
+        // 2+2 only when the cells share no line
+        final PairTable sum = PairTable.forTarget(SUM, 4, 6);
+        assertEquals(mask(2), sum.supported(mask(2), false));
+        assertEquals(0, sum.supported(mask(2), true));
+    }
+
+    @Test
+    public void testShared() {
+        assertSame(PairTable.forTarget(DIFFERENCE, 2, 9),
+                PairTable.forCage(new Puzzle.Cage(2, DIFFERENCE, 4,4, 5,4), 9));
+        assertNotSame(PairTable.forTarget(DIFFERENCE, 2, 9), PairTable.forTarget(DIFFERENCE, 2, 8));
+    }
+
+    @Test
+    public void testBoundedCache() {
+        // shrunk SUM cages bring a new target each
+        for (long target = 0; target < 2 * PairTable.MAX_CACHED; target++) {
+            PairTable.forTarget(SUM, target, 64);
+        }
+        assertEquals(PairTable.MAX_CACHED, PairTable.cached());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLargeCage() {
+        PairTable.forCage(new Puzzle.Cage(6, SUM, 0,0, 0,1, 0,2), 6);
+    }
+}
@@ -0,0 +1,64 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PuzzleCanonicalizerTest {
+
+    /**
+     * @return copy of puzzle with every cell moved by transform
+     */
+    static Puzzle transform(Puzzle puzzle, int transform) {
+        final int size = puzzle.getSize();
+        final Puzzle.Builder builder = new Puzzle.Builder(size);
+        for (Puzzle.Cage cage : puzzle.getCages()) {
+            final int[] rowsCols = new int[cage.rowsCols.length];
+            for (int i = 0; i < rowsCols.length; i += 2) {
+                final int index = PuzzleCanonicalizer.apply(transform, size, cage.rowsCols[i], cage.rowsCols[i + 1]);
+                rowsCols[i] = index / size;
+                rowsCols[i + 1] = index % size;
+            }
+            builder.addCage(cage.target, cage.operator, rowsCols);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testSymmetricCopiesMatch() {
+        final PuzzleCanonicalizer.Fingerprint expected =
+                PuzzleCanonicalizer.canonicalize(SolverTest.EXAMPLE6).getFingerprint();
+        for (int transform = 0; transform < PuzzleCanonicalizer.TRANSFORMS; transform++) {
+            final Puzzle copy = transform(SolverTest.EXAMPLE6, transform);
+            assertEquals("transform " + transform,
+                    expected, PuzzleCanonicalizer.canonicalize(copy).getFingerprint());
+        }
+    }
+
+    @Test
+    public void testDifferentPuzzles() {
+        final Puzzle sum = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,0, 1,0)
+                .addCage(3, SUM, 0,1, 1,1)
+                .build();
+        final Puzzle product = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,0, 1,0)
+                .addCage(2, PRODUCT, 0,1, 1,1)
+                .build();
+        assertFalse(PuzzleCanonicalizer.canonicalize(sum).getFingerprint()
+                .equals(PuzzleCanonicalizer.canonicalize(product).getFingerprint()));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (int transform = 0; transform < PuzzleCanonicalizer.TRANSFORMS; transform++) {
+            final Puzzle copy = transform(SolverTest.EXAMPLE6, transform);
+            final Solver solver = new Solver(copy);
+            solver.solve();
+            final PuzzleCanonicalizer.Canonical canonical = PuzzleCanonicalizer.canonicalize(copy);
+            assertEquals(solver.getSolution(), canonical.fromCanonical(canonical.toCanonical(solver.getSolution())));
+        }
+    }
+}
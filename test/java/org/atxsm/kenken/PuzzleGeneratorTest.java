@@ -0,0 +1,74 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PuzzleGeneratorTest {
+
+    @Test
+    public void testLatinSquare() {
+        final int size = 9;
+        final int[] values = PuzzleGenerator.latinSquare(size, new Random(1));
+        for (int i = 0; i < size; i++) {
+            long row = 0;
+            long col = 0;
+            for (int j = 0; j < size; j++) {
+                row |= Solution.bit(values[i * size + j]);
+                col |= Solution.bit(values[j * size + i]);
+            }
+            assertEquals(Solution.fullMask(size), row);
+            assertEquals(Solution.fullMask(size), col);
+        }
+    }
+
+    @Test
+    public void testCageSizes() {
+        final Puzzle puzzle = new PuzzleGenerator(6, 0, 0, 1).candidate(new Random(2));
+        for (Puzzle.Cage cage : puzzle.getCages()) {
+            assertTrue(cage.toString(), cage.rowsCols.length <= 6);
+        }
+        assertTrue(puzzle.getCageCount() < 36 / 2);
+    }
+
+    @Test
+    public void testUnique() {
+        final Random random = new Random(3);
+        final PuzzleGenerator generator = new PuzzleGenerator(6, 1, 5, 3, 1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, new Solver(generator.generate(random)).countSolutions(2));
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        final PuzzleGenerator generator = new PuzzleGenerator(5, 1, 5, 3, 1);
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final List<Puzzle> expected = generator.generate(8, 42, single);
+            assertEquals(expected, generator.generate(8, 42, pool));
+            assertEquals(8, expected.size());
+        } finally {
+            single.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNeverUnique() {
+        // both 2x2 Latin squares reach every two-cell cage alike
+        new PuzzleGenerator(2, 0, 1).generate(new Random(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoWeights() {
+        new PuzzleGenerator(4, 0, 0);
+    }
+}
@@ -0,0 +1,169 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.*;
+
+public class PuzzleReaderTest {
+    private static final Puzzle TINY = new Puzzle.Builder(2)
+            .addCage(3, SUM, 0,0, 1,0)
+            .addCage(2, RATIO, 0,1, 1,1)
+            .build();
+    private static final Puzzle NEGATIVE = new Puzzle.Builder(3)
+            .addCage(1, DIFFERENCE, 0,0, 0,1)
+            .addCage(1, SUM, 1, 0)
+            .addCage(2, PRODUCT, 1, 1)
+            .addCage(-2, DIFFERENCE, 0,2, 1,2)
+            .addCage(2, DIFFERENCE, 2,0, 2,1)
+            .addCage(2, SUM, 2,2)
+            .build();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Puzzle large = wide(17);
+        final byte[] bytes = write(TINY, NEGATIVE, large);
+        final PuzzleReader reader = new PuzzleReader(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        assertSamePuzzle(TINY, reader.read());
+        assertSamePuzzle(NEGATIVE, reader.read());
+        assertSamePuzzle(large, reader.read());
+        assertNull(reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        // header, size, cage count, then 4 bytes per two-cell cage
+        assertEquals(4 + 1 + 1 + 2 * (1 + 1 + 1 + 2), write(TINY).length);
+    }
+
+    @Test
+    public void testLongTarget() throws IOException {
+        final Puzzle big = new Puzzle.Builder(2)
+                .addCage(3L << 40, PRODUCT, 0,0, 0,1, 1,1, 1,0)
+                .build();
+        final PuzzleReader reader = new PuzzleReader(Channels.newChannel(new ByteArrayInputStream(write(big, NEGATIVE))));
+        assertSamePuzzle(big, reader.read());
+        assertSamePuzzle(NEGATIVE, reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        final File file = File.createTempFile("puzzles", ".kkp");
+        try {
+            final Puzzle[] puzzles = new Puzzle[1000];
+            for (int i = 0; i < puzzles.length; i++) {
+                puzzles[i] = i % 2 == 0 ? TINY : NEGATIVE;
+            }
+            Files.write(file.toPath(), write(puzzles));
+            final PuzzleReader reader = PuzzleReader.map(file.toPath(), 100); // records straddle windows
+            for (Puzzle puzzle : puzzles) {
+                assertSamePuzzle(puzzle, reader.read());
+            }
+            assertNull(reader.read());
+            reader.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testMappedRecordLargerThanWindow() throws IOException {
+        final File file = File.createTempFile("puzzles", ".kkp");
+        try {
+            final Puzzle large = wide(17);
+            Files.write(file.toPath(), write(TINY, large, NEGATIVE));
+            final PuzzleReader reader = PuzzleReader.map(file.toPath(), 100);
+            assertSamePuzzle(TINY, reader.read());
+            assertSamePuzzle(large, reader.read());
+            assertSamePuzzle(NEGATIVE, reader.read());
+            assertNull(reader.read());
+            reader.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testRecordLargerThanWriteBuffer() throws IOException {
+        final Puzzle large = wide(17);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PuzzleWriter writer = new PuzzleWriter(Channels.newChannel(out), 16);
+        writer.write(TINY).write(large).write(NEGATIVE).close();
+        assertArrayEquals(write(TINY, large, NEGATIVE), out.toByteArray());
+    }
+
+    @Test
+    public void testInvalidCounts() throws IOException {
+        final byte[] header = write();
+        final byte[][] records = {
+                {2, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07}, // 2^31 - 1 cages
+                {2, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08}, // negative cage count
+                {2, 0},                                                         // no cages
+                {2, 1, 0, 6, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07}, // 2^31 - 1 cells
+                {2, 1, 0, 6, 5},                                                // more cells than the grid
+        };
+        for (byte[] record : records) {
+            final byte[] bytes = Arrays.copyOf(header, header.length + record.length);
+            System.arraycopy(record, 0, bytes, header.length, record.length);
+            final PuzzleReader reader = new PuzzleReader(Channels.newChannel(new ByteArrayInputStream(bytes)));
+            try {
+                reader.read();
+                fail("accepted " + Arrays.toString(record));
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("invalid cage"));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        final byte[] bytes = write(NEGATIVE);
+        new PuzzleReader(Channels.newChannel(new ByteArrayInputStream(
+                Arrays.copyOf(bytes, bytes.length - 1)))).read();
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadMagic() throws IOException {
+        new PuzzleReader(Channels.newChannel(new ByteArrayInputStream(new byte[]{'K', 'K', 'X', 1})));
+    }
+
+    /**
+     * @return size x size puzzle of one-cell cages, to need two-byte cell indexes
+     */
+    private static Puzzle wide(int size) {
+        final Puzzle.Builder builder = new Puzzle.Builder(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                builder.addCage((row + col) % size + 1, SUM, row, col);
+            }
+        }
+        return builder.build();
+    }
+
+    private static byte[] write(Puzzle... puzzles) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PuzzleWriter writer = new PuzzleWriter(Channels.newChannel(out));
+        for (Puzzle puzzle : puzzles) {
+            writer.write(puzzle);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static void assertSamePuzzle(Puzzle expected, Puzzle actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getSize(), actual.getSize());
+        assertEquals(new HashSet<Puzzle.Cage>(expected.getCages()), new HashSet<Puzzle.Cage>(actual.getCages()));
+    }
+}
@@ -68,5 +68,89 @@ public class PuzzleTest {
             assertEquals("RATIO must have exactly two cells", expected.getMessage());
         }
     }
-    
+
+    @Test
+    public void testNotAdjacent() {
+        try {
+            new Puzzle.Builder(2)
+                    .addCage(3, SUM, 0,0, 1,1)
+                    .addCage(3, SUM, 0,1, 1,0)
+                    .build();
+            fail("Expected IllegalStateException, none thrown");
+        } catch (IllegalStateException expected) {
+            assertTrue("Unexpected exception message: " + expected.getMessage(),
+                    expected.getMessage().contains("are not adjacent"));
+        }
+    }
+
+    @Test
+    public void testOutsideGrid() {
+        try {
+            new Puzzle.Builder(2)
+                    .addCage(3, SUM, 0,0, 1,0)
+                    .addCage(3, SUM, 0,1, 1,1, 2,1)
+                    .build();
+            fail("Expected IllegalStateException, none thrown");
+        } catch (IllegalStateException expected) {
+            assertTrue("Unexpected exception message: " + expected.getMessage(),
+                    expected.getMessage().contains("(2,1)"));
+            assertTrue("Unexpected exception message: " + expected.getMessage(),
+                    expected.getMessage().contains("is outside the grid"));
+        }
+    }
+
+    @Test
+    public void testAllErrorsReported() {
+        try {
+            new Puzzle.Builder(3)
+                    .addCage(4, SUM, 0,0)
+                    .addCage(0, PRODUCT, 0,1, 0,2)
+                    .addCage(3, SUM, 1,0, 1,2)
+                    .addCage(3, SUM, 1,2, 2,2)
+                    .build();
+            fail("Expected IllegalStateException, none thrown");
+        } catch (IllegalStateException expected) {
+            final String message = expected.getMessage();
+            assertTrue("Unexpected exception message: " + message,
+                    message.contains("value must be between 1 and 3"));
+            assertTrue("Unexpected exception message: " + message,
+                    message.contains("must have a positive value"));
+            assertTrue("Unexpected exception message: " + message,
+                    message.contains("are not adjacent"));
+            assertTrue("Unexpected exception message: " + message,
+                    message.contains("(1,2) cannot be in both"));
+            assertTrue("Unexpected exception message: " + message,
+                    message.contains("Some cells remain uncaged: (1,1),(2,0),(2,1)"));
+        }
+    }
+
+    @Test
+    public void testCageOrder() {
+        final Puzzle puzzle = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,0, 1,0)
+                .addCage(2, RATIO, 0,1, 1,1)
+                .build();
+        assertEquals(2, puzzle.getCageCount());
+        assertEquals(new Puzzle.Cage(3, SUM, 0,0, 1,0), puzzle.getCage(0));
+        assertEquals(new Puzzle.Cage(2, RATIO, 0,1, 1,1), puzzle.getCages().get(1));
+    }
+
+    @Test
+    public void testEqualsIgnoresCageOrder() {
+        final Puzzle puzzle = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,0, 1,0)
+                .addCage(2, RATIO, 0,1, 1,1)
+                .build();
+        final Puzzle reordered = new Puzzle.Builder(2)
+                .addCage(2, RATIO, 0,1, 1,1)
+                .addCage(3, SUM, 0,0, 1,0)
+                .build();
+        final Puzzle other = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,0, 1,0)
+                .addCage(3, SUM, 0,1, 1,1)
+                .build();
+        assertEquals(puzzle, reordered);
+        assertEquals(puzzle.hashCode(), reordered.hashCode());
+        assertFalse(puzzle.equals(other));
+    }
 }
@@ -0,0 +1,52 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SolutionCacheTest {
+
+    @Test
+    public void testHitInCallerOrientation() {
+        final SolutionCache cache = new SolutionCache(4);
+        assertEquals(SolverTest.EXAMPLE6_SOLUTION, cache.solve(SolverTest.EXAMPLE6));
+        for (int transform = 1; transform < PuzzleCanonicalizer.TRANSFORMS; transform++) {
+            final Puzzle copy = PuzzleCanonicalizerTest.transform(SolverTest.EXAMPLE6, transform);
+            final Solver solver = new Solver(copy);
+            solver.solve();
+            assertEquals("transform " + transform, solver.getSolution(), cache.solve(copy));
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(7, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testNoSolutionCached() {
+        final SolutionCache cache = new SolutionCache(4);
+        assertNull(cache.solve(SolverTest.UNSOLVABLE));
+        assertNull(cache.solve(SolverTest.UNSOLVABLE));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        final SolutionCache cache = new SolutionCache(2);
+        final Puzzle one = new Puzzle.Builder(1).addCage(1, SUM, 0,0).build();
+        final Puzzle two = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,0, 1,0)
+                .addCage(3, SUM, 0,1, 1,1)
+                .build();
+        cache.solve(one);
+        cache.solve(two);
+        cache.solve(one); // hit, so two is now eldest
+        cache.solve(SolverTest.EXAMPLE6);
+        assertEquals(2, cache.size());
+        cache.solve(one);
+        assertEquals(2, cache.getHits());
+        cache.solve(two);
+        assertEquals(4, cache.getMisses());
+    }
+}
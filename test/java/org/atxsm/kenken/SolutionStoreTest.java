@@ -0,0 +1,112 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SolutionStoreTest {
+    private static List<Solution> grids(int size, int count) {
+        final Random random = new Random(size);
+        final List<Solution> grids = new ArrayList<Solution>();
+        for (int i = 0; i < count; i++) {
+            grids.add(new Solution(size, PuzzleGenerator.latinSquare(size, random)));
+        }
+        return grids;
+    }
+
+    private static void assertSameGrid(SolutionView expected, SolutionView actual) {
+        assertEquals(expected.getSize(), actual.getSize());
+        for (int row = 0; row < expected.getSize(); row++) {
+            for (int col = 0; col < expected.getSize(); col++) {
+                assertEquals(expected.valueOrZero(row, col), actual.valueOrZero(row, col));
+            }
+        }
+    }
+
+    @Test
+    public void testBitsPerCell() {
+        assertEquals(1, SolutionStore.bitsPerCell(1));
+        assertEquals(4, SolutionStore.bitsPerCell(9));
+        assertEquals(4, SolutionStore.bitsPerCell(16));
+        assertEquals(5, SolutionStore.bitsPerCell(17));
+        assertEquals(5, SolutionStore.bitsPerCell(32));
+        assertEquals(6, SolutionStore.bitsPerCell(64));
+        assertEquals(41, SolutionStore.allocate(9).getRecordBytes());
+    }
+
+    @Test
+    public void testDirectRoundTrip() {
+        for (int size : new int[]{1, 4, 9, 16, 17, 33, 64}) {
+            final List<Solution> grids = grids(size, 5);
+            final SolutionStore store = SolutionStore.allocate(size);
+            for (Solution grid : grids) {
+                store.append(grid);
+            }
+            assertEquals(grids.size(), store.getCount());
+            for (int i = 0; i < grids.size(); i++) {
+                assertSameGrid(grids.get(i), store.get(i));
+                assertEquals(grids.get(i), store.toSolution(i));
+            }
+            int i = 0;
+            for (SolutionView view : store) {
+                assertSameGrid(grids.get(i++), view);
+            }
+            assertEquals(grids.size(), i);
+        }
+    }
+
+    @Test
+    public void testMappedAcrossSegments() throws IOException {
+        final File file = File.createTempFile("grids", ".kks");
+        try {
+            final List<Solution> grids = grids(9, 50);
+            final SolutionStore store = SolutionStore.create(file.toPath(), 9, 100); // two grids per segment
+            for (Solution grid : grids) {
+                store.append(grid);
+            }
+            store.close();
+
+            final SolutionStore reopened = SolutionStore.open(file.toPath(), 100);
+            assertEquals(50, reopened.getCount());
+            assertEquals(grids.get(37).valueOrZero(4, 5), reopened.valueOrZero(37, 4, 5));
+            for (int i = 0; i < grids.size(); i++) {
+                assertSameGrid(grids.get(i), reopened.get(i));
+            }
+            assertEquals(50, reopened.append(grids.get(0)));
+            assertEquals(51, reopened.getCount());
+            reopened.close();
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testIncompleteGrid() {
+        try {
+            SolutionStore.allocate(2).append(new Solution(2).setAll(1, 2, 2));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("(1,1)"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadMagic() throws IOException {
+        final File file = File.createTempFile("grids", ".kks");
+        try {
+            Files.write(file.toPath(), new byte[32]);
+            SolutionStore.open(file.toPath());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
@@ -53,6 +53,72 @@ public class SolutionTest {
         assertImpossible(solution, 2, 0, 1);
     }
 
+    @Test
+    public void testCandidateMask() throws Exception {
+        final Solution solution = new Solution(4); // no values yet
+        assertEquals(0xfL, solution.candidateMask(1, 2));
+        assertEquals(4, solution.candidateCount(1, 2));
+        assertEquals(0, solution.valueOrZero(1, 2));
+
+        assertTrue(solution.markImpossible(1, 2, 3));
+        assertEquals(0xbL, solution.candidateMask(1, 2));
+        assertEquals(3, solution.candidateCount(1, 2));
+
+        assertTrue(solution.set(1, 0, 2));
+        assertEquals(2, solution.valueOrZero(1, 0));
+        assertEquals(0x9L, solution.candidateMask(1, 2));
+        assertEquals(0xdL, solution.candidateMask(3, 0));
+        assertEquals(0xfL, solution.candidateMask(3, 3));
+    }
+
+    @Test
+    public void testLargestSize() throws Exception {
+        final Solution solution = new Solution(64);
+        assertEquals(-1L, solution.candidateMask(63, 63));
+        assertTrue(solution.set(63, 63, 64));
+        assertEquals(64, solution.valueOrZero(63, 63));
+        assertEquals(63, solution.candidateCount(0, 63));
+    }
+
+    @Test
+    public void testUndo() throws Exception {
+        final Solution solution = new Solution(3); // no values yet
+        assertTrue(solution.markImpossible(2, 2, 3));
+        final int mark = solution.mark();
+        assertTrue(solution.set(0, 0, 1));
+        assertTrue(solution.set(1, 1, 3));
+        assertTrue(solution.isComplete());
+        solution.undo(mark);
+        assertEquals(new Solution(3), solution);
+        assertEquals(0x3L, solution.candidateMask(2, 2));
+        assertEquals(0x7L, solution.candidateMask(0, 1));
+    }
+
+    @Test
+    public void testContradiction() throws Exception {
+        final Solution solution = new Solution(2); // no values yet
+        assertTrue(solution.set(0, 0, 1));
+        final int mark = solution.mark();
+        assertFalse(solution.hasContradiction());
+        assertTrue(solution.restrict(1, 0, Solution.bit(1)));
+        assertTrue(solution.hasContradiction());
+        solution.undo(mark);
+        assertFalse(solution.hasContradiction());
+        assertEquals(Integer.valueOf(2), solution.get(1, 0));
+    }
+
+    @Test
+    public void testForcedChain() throws Exception {
+        final Solution solution = new Solution(64); // no values yet
+        for (int col = 0; col < 63; col++) {
+            solution.set(0, col, col + 1);
+        }
+        assertEquals(Integer.valueOf(64), solution.get(0, 63));
+        assertEquals(~Solution.bit(64), solution.candidateMask(63, 63));
+        assertEquals(~Solution.bit(1), solution.candidateMask(63, 0));
+        assertFalse(solution.hasContradiction());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testSetBadValue() throws Exception {
         new Solution(1).set(0, 0, 0);
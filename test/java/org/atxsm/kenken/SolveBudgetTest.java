@@ -0,0 +1,43 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SolveBudgetTest {
+
+    @Test
+    public void testBuilder() {
+        final SolveBudget budget = new SolveBudget.Builder()
+                .timeout(50, TimeUnit.MILLISECONDS)
+                .maxNodes(1000)
+                .build();
+        assertTrue(budget.hasTimeout());
+        assertEquals(50000000, budget.getTimeoutNanos());
+        assertEquals(1000, budget.getMaxNodes());
+        assertEquals(Long.MAX_VALUE, budget.getMaxPropagations());
+        assertEquals("SolveBudget{timeout=50000us, maxNodes=1000, maxPropagations=none}", budget.toString());
+        assertFalse(SolveBudget.UNLIMITED.hasTimeout());
+    }
+
+    @Test
+    public void testNegative() {
+        try {
+            new SolveBudget.Builder().maxPropagations(-1);
+            fail("negative limit accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new SolveBudget.Builder().timeout(-1, TimeUnit.SECONDS);
+            fail("negative timeout accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
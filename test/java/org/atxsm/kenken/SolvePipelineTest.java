@@ -0,0 +1,76 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class SolvePipelineTest {
+    private static PuzzleReader reader(List<Puzzle> puzzles) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PuzzleWriter writer = new PuzzleWriter(Channels.newChannel(bytes));
+        for (Puzzle puzzle : puzzles) {
+            writer.write(puzzle);
+        }
+        writer.close();
+        return new PuzzleReader(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void testInOrder() throws IOException {
+        final List<Puzzle> puzzles = new ArrayList<Puzzle>();
+        for (int i = 0; i < 200; i++) {
+            puzzles.add(i % 3 == 1 ? SolverTest.UNSOLVABLE : SolverTest.EXAMPLE6);
+        }
+        final List<SolvePipeline.Progress> reports = new ArrayList<SolvePipeline.Progress>();
+        final StringWriter out = new StringWriter();
+        final SolvePipeline.Progress progress = new SolvePipeline(3, 4, 10, TimeUnit.SECONDS)
+                .setProgressListener(new Consumer<SolvePipeline.Progress>() {
+                    @Override
+                    public void accept(SolvePipeline.Progress progress) {
+                        assertTrue(progress.getWritten() <= progress.getSolved());
+                        assertTrue(progress.getSolved() <= progress.getRead());
+                        assertTrue(progress.getRead() - progress.getWritten() <= 4);
+                        reports.add(progress);
+                    }
+                }, 0, TimeUnit.SECONDS)
+                .run(reader(puzzles), out);
+        assertEquals(200, progress.getRead());
+        assertEquals(200, progress.getWritten());
+        assertFalse(reports.isEmpty());
+        assertEquals(200, reports.get(reports.size() - 1).getWritten());
+
+        final StringBuilder solved = new StringBuilder("SOLVED");
+        for (int row = 0; row < 6; row++) {
+            for (int col = 0; col < 6; col++) {
+                solved.append(' ').append(SolverTest.EXAMPLE6_SOLUTION.valueOrZero(row, col));
+            }
+        }
+        final List<String> lines = Arrays.asList(out.toString().split("\n"));
+        assertEquals(200, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(i + " " + (i % 3 == 1 ? "CONTRADICTION" : solved), lines.get(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadInput() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PuzzleWriter writer = new PuzzleWriter(Channels.newChannel(bytes));
+        writer.write(SolverTest.EXAMPLE6).write(SolverTest.EXAMPLE6);
+        writer.close();
+        final byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+        new SolvePipeline(2, 1, 10, TimeUnit.SECONDS)
+                .run(new PuzzleReader(Channels.newChannel(new ByteArrayInputStream(truncated))), new StringWriter());
+    }
+}
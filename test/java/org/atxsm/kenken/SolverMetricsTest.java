@@ -0,0 +1,91 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SolverMetricsTest {
+    @Test
+    public void testRecordsSolves() {
+        final SolverMetrics metrics = new SolverMetrics();
+        SolverMetrics.install(metrics);
+        try {
+            final Solver solver = new Solver(SolverTest.EXAMPLE6);
+            assertTrue(solver.solve());
+            assertFalse(new Solver(SolverTest.UNSOLVABLE).solve());
+            new Solver(SolverTest.EXAMPLE6).solve(new SolveBudget.Builder().maxPropagations(1).build());
+            final SolutionCache cache = new SolutionCache(4);
+            cache.solve(SolverTest.EXAMPLE6);
+            cache.solve(SolverTest.EXAMPLE6);
+
+            assertEquals(4, metrics.getSolves()); // the cache miss solved once more
+            assertEquals(2, metrics.getSolved());
+            assertEquals(1, metrics.getContradictions());
+            assertEquals(1, metrics.getStopped());
+            assertEquals(1, metrics.getSolves(SolveResult.Status.BUDGET_EXCEEDED));
+            assertEquals(1, metrics.getCacheHits());
+            assertEquals(1, metrics.getCacheMisses());
+            assertEquals(0.5, metrics.getCacheHitRate(), 0);
+            final SolveStats stats = solver.getStats();
+            assertTrue(metrics.getPropagations() >= 2 * stats.getPropagations());
+            assertTrue(metrics.getSearchNodes() >= 2 * stats.getBranches());
+            for (SolveStats.Rule rule : SolveStats.Rule.values()) {
+                assertTrue(metrics.getPasses(rule) >= 2 * stats.getPasses(rule));
+            }
+            assertTrue(metrics.getLatencyNanos(1) > 0);
+            assertTrue(metrics.getP50Micros() <= metrics.getMaxMicros());
+        } finally {
+            SolverMetrics.install(null);
+        }
+        new Solver(SolverTest.UNSOLVABLE).solve();
+        assertEquals(1, metrics.getContradictions());
+    }
+
+    @Test
+    public void testText() {
+        final SolverMetrics metrics = new SolverMetrics();
+        SolverMetrics.install(metrics);
+        try {
+            new Solver(SolverTest.EXAMPLE6).solve();
+        } finally {
+            SolverMetrics.install(null);
+        }
+        final String text = metrics.getSnapshot();
+        assertTrue(text, text.contains("# TYPE kenken_solves_total counter\n"));
+        assertTrue(text, text.contains("kenken_solves_total{status=\"solved\"} 1\n"));
+        assertTrue(text, text.contains("kenken_solves_total{status=\"contradiction\"} 0\n"));
+        assertTrue(text, text.contains("kenken_solve_seconds_count 1\n"));
+        assertTrue(text, text.contains("kenken_rule_passes_total{rule=\"lines\"} "));
+        assertTrue(text, text.contains("kenken_cache_hit_ratio 0.0\n"));
+        for (String line : text.split("\n")) {
+            assertTrue(line, line.startsWith("# ") || line.matches("kenken_[a-z_]+(\\{[a-z]+=\"[a-z0-9_.]+\"})? \\S+"));
+        }
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        final SolverMetrics metrics = new SolverMetrics();
+        metrics.register("test");
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = SolverMetrics.objectName("test");
+            assertEquals(0L, server.getAttribute(name, "Solves"));
+            metrics.recordSolve(SolveResult.Status.SOLVED, new Solver(SolverTest.EXAMPLE6).getStats());
+            assertEquals(1L, server.getAttribute(name, "Solved"));
+            assertTrue(((String) server.getAttribute(name, "Snapshot")).contains("kenken_solves_total"));
+        } finally {
+            metrics.unregister("test");
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnregisterUnknown() {
+        new SolverMetrics().unregister("missing");
+    }
+}
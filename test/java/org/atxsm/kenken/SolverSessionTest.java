@@ -0,0 +1,112 @@
+package org.atxsm.kenken;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.atxsm.kenken.Operator.*;
+import static org.junit.Assert.*;
+
+public class SolverSessionTest {
+    // 3x3 with twelve solutions, so the rules alone decide nothing
+    private static final Puzzle OPEN = new Puzzle.Builder(3)
+            .addCage(6, SUM, 0,0, 0,1, 0,2)
+            .addCage(6, SUM, 1,0, 1,1, 1,2)
+            .addCage(6, PRODUCT, 2,0, 2,1, 2,2)
+            .build();
+
+    @Test
+    public void testPlaceCorrectValues() {
+        final SolverSession session = new SolverSession(SolverTest.EXAMPLE6);
+        final Solution expected = SolverTest.EXAMPLE6_SOLUTION;
+        for (int row = 0; row < 6; row++) {
+            for (int col = 0; col < 6; col++) {
+                assertFalse(session.isSolved());
+                session.place(row, col, expected.valueOrZero(row, col));
+            }
+        }
+        assertTrue(session.getConflicts().toString(), session.isSolved());
+    }
+
+    @Test
+    public void testRowConflict() {
+        final SolverSession session = new SolverSession(OPEN);
+        session.place(0, 0, 1);
+        session.place(0, 2, 1);
+        assertEquals(Arrays.asList(0, 2), session.getConflicts());
+        session.erase(0, 2);
+        assertEquals(Collections.<Integer>emptyList(), session.getConflicts());
+        assertEquals(0, session.getPlaced(0, 2));
+    }
+
+    @Test
+    public void testCandidatesFollowMoves() {
+        final SolverSession session = new SolverSession(OPEN);
+        session.place(0, 0, 1);
+        session.place(1, 1, 1);
+        assertEquals(Solution.bit(1), session.candidateMask(2, 2)); // the only place left for 1
+
+        session.erase(0, 0); // undone and the later move replayed
+        final SolverSession expected = new SolverSession(OPEN);
+        expected.place(1, 1, 1);
+        assertSameCandidates(expected, session);
+
+        session.erase(1, 1);
+        assertSameCandidates(new SolverSession(OPEN), session);
+    }
+
+    @Test
+    public void testRejectedPlacement() {
+        final SolverSession session = new SolverSession(SolverTest.EXAMPLE6);
+        session.place(0, 0, 1); // 11 in two cells needs 5 and 6
+        assertEquals(Collections.singletonList(0), session.getConflicts());
+        assertEquals(Solution.bit(5), session.candidateMask(0, 0));
+        session.place(0, 0, 5);
+        assertEquals(Collections.<Integer>emptyList(), session.getConflicts());
+        assertEquals(Solution.bit(6), session.candidateMask(1, 0));
+    }
+
+    @Test
+    public void testReplaceValue() {
+        final SolverSession session = new SolverSession(OPEN);
+        session.place(2, 0, 2);
+        session.place(2, 1, 2);
+        assertTrue(session.hasConflict(2, 0));
+        assertTrue(session.hasConflict(2, 1));
+        session.place(2, 0, 3);
+        assertFalse(session.hasConflict(2, 1));
+        assertEquals(Solution.bit(1), session.candidateMask(2, 2));
+    }
+
+    private static void assertSameCandidates(SolverSession expected, SolverSession actual) {
+        for (int row = 0; row < expected.getSize(); row++) {
+            for (int col = 0; col < expected.getSize(); col++) {
+                assertEquals("(" + row + "," + col + ")",
+                        expected.candidateMask(row, col), actual.candidateMask(row, col));
+            }
+        }
+    }
+
+    @Test
+    public void testCageConflict() {
+        final Puzzle puzzle = new Puzzle.Builder(2)
+                .addCage(3, SUM, 0,0, 0,1)
+                .addCage(3, SUM, 1,0, 1,1)
+                .build();
+        final SolverSession session = new SolverSession(puzzle);
+        session.place(0, 0, 1);
+        session.place(0, 1, 1);
+        session.place(1, 0, 2);
+        session.place(1, 1, 2);
+        assertTrue(session.hasConflict(1, 1));
+        session.place(1, 1, 1);
+        session.place(0, 1, 2);
+        assertTrue(session.getConflicts().toString(), session.isSolved());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueOutOfRange() {
+        new SolverSession(OPEN).place(0, 0, 4);
+    }
+}
@@ -1,16 +1,21 @@
 package org.atxsm.kenken;
 
-import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import static org.atxsm.kenken.Operator.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * User: Cheng Leong
@@ -23,6 +28,39 @@ public class SolverTest {
                     .addCage(1, SUM, 0,0);
     private static final Solution TRIVIAL_SOLUTION =
             new Solution(1).setAll(1);
+    static final Puzzle EXAMPLE6 = new Puzzle.Builder(6)
+            .addCage(11, SUM, 0,0, 1,0)
+            .addCage(2, RATIO, 0,1, 0,2)
+            .addCage(20, PRODUCT, 0,3, 1,3)
+            .addCage(6, PRODUCT, 0,4, 0,5, 1,5, 2,5)
+            .addCage(3, DIFFERENCE, 1,1, 1,2)
+            .addCage(3, RATIO, 1,4, 2,4)
+            .addCage(240, PRODUCT, 2,0, 2,1, 3,0, 3,1)
+            .addCage(6, PRODUCT, 2,2, 2,3)
+            .addCage(6, PRODUCT, 3,2, 4,2)
+            .addCage(7, SUM, 3,3, 4,3, 4,4)
+            .addCage(30, PRODUCT, 3,4, 3,5)
+            .addCage(6, PRODUCT, 4,0, 4,1)
+            .addCage(9, SUM, 4,5, 5,5)
+            .addCage(8, SUM, 5,0, 5,1, 5,2)
+            .addCage(2, RATIO, 5,3, 5,4)
+            .build();
+    static final Solution EXAMPLE6_SOLUTION = new Solution(6).setAll(
+            5, 6, 3, 4, 1, 2,
+            6, 1, 4, 5, 2, 3,
+            4, 5, 2, 3, 6, 1,
+            3, 4, 1, 2, 5, 6,
+            2, 3, 6, 1, 4, 5,
+            1, 2, 5, 6, 3, 4);
+    static final Puzzle UNSOLVABLE = new Puzzle.Builder(2)
+            .addCage(3, SUM, 0,0, 0,1)
+            .addCage(4, SUM, 1,0, 1,1)
+            .build();
+    private static final Puzzle AMBIGUOUS = new Puzzle.Builder(3)
+            .addCage(6, SUM, 0,0, 0,1, 0,2)
+            .addCage(6, SUM, 1,0, 1,1, 1,2)
+            .addCage(6, PRODUCT, 2,0, 2,1, 2,2)
+            .build();
 
     @Test
     public void testIdentity() throws Exception {
@@ -128,34 +166,343 @@ public class SolverTest {
     }
 
     @Test
-    @Ignore("not smart enough yet")
     public void testSolveExample6() {
-        final Solver solver = new Solver(new Puzzle.Builder(6)
-                .addCage(11, SUM, 0,0, 1,0)
-                .addCage(2, RATIO, 0,1, 0,2)
-                .addCage(20, PRODUCT, 0,3, 1,3)
-                .addCage(6, PRODUCT, 0,4, 0,5, 1,5, 2,5)
-                .addCage(3, DIFFERENCE, 1,1, 1,2)
-                .addCage(3, RATIO, 1,4, 2,4)
-                .addCage(240, PRODUCT, 2,0, 2,1, 3,0, 3,1)
-                .addCage(6, PRODUCT, 2,2, 2,3)
-                .addCage(6, PRODUCT, 3,2, 4,2)
-                .addCage(7, SUM, 3,3, 4,3, 4,4)
-                .addCage(30, PRODUCT, 3,4, 3,5)
-                .addCage(6, PRODUCT, 4,0, 4,1)
-                .addCage(9, SUM, 4,5, 5,5)
-                .addCage(8, SUM, 5,0, 5,1, 5,2)
-                .addCage(2, RATIO, 5,3, 5,4)
-                .build());
+        final Solver solver = new Solver(EXAMPLE6);
         solver.solve();
 
-        assertEquals(new Solution(6).setAll(
-                5, 6, 3, 4, 1, 2,
-                6, 1, 4, 5, 2, 3,
-                4, 5, 2, 3, 6, 1,
-                3, 4, 1, 2, 5, 6,
-                2, 3, 6, 1, 4, 5,
-                1, 2, 5, 6, 3, 4),
-                solver.getSolution());
+        assertEquals(EXAMPLE6_SOLUTION, solver.getSolution());
+    }
+
+    @Test
+    public void testSearchAmbiguous() {
+        // no cage pins down the values, so search has to pick
+        final Solver solver = new Solver(AMBIGUOUS);
+        assertTrue(solver.solve());
+        final Solution solution = solver.getSolution();
+        assertTrue(solution.isComplete());
+        assertFalse(solution.hasContradiction());
+        for (int i = 0; i < 3; i++) {
+            final Set<Integer> row = new HashSet<Integer>();
+            final Set<Integer> col = new HashSet<Integer>();
+            for (int j = 0; j < 3; j++) {
+                row.add(solution.get(i, j));
+                col.add(solution.get(j, i));
+            }
+            assertEquals(3, row.size());
+            assertEquals(3, col.size());
+        }
+    }
+
+    @Test
+    public void testNoSolution() {
+        final Solver solver = new Solver(UNSOLVABLE);
+        assertFalse(solver.solve());
+    }
+
+    @Test
+    public void testFilterCages() {
+        final Solver solver = new Solver(new Puzzle.Builder(4)
+                .addCage(4, SUM, 0,0, 0,1, 1,0)
+                .addCage(36, SUM, 0,2, 0,3, 1,1, 1,2, 1,3,
+                        2,0, 2,1, 2,2, 2,3, 3,0, 3,1, 3,2, 3,3)
+                .build());
+        assertFalse("limitPairs", solver.limitPairs());
+        assertTrue("filterCages", solver.filterCages());
+        final Solution solution = solver.getSolution();
+        assertEquals(Integer.valueOf(2), solution.get(0, 0));
+        assertEquals(Integer.valueOf(1), solution.get(0, 1));
+        assertEquals(Integer.valueOf(1), solution.get(1, 0));
+    }
+
+    @Test
+    public void testCageWithoutTable() {
+        // a 4x4 block of 1..6 and 8, whose product has no factor of 7, 11 or 13
+        final int[] symbols = {1, 2, 3, 4, 5, 6, 8, 7, 9, 10, 11, 12, 13, 14, 15, 16};
+        final int[] block = new int[32];
+        long product = 1;
+        for (int i = 0; i < 16; i++) {
+            block[2 * i] = i / 4;
+            block[2 * i + 1] = i % 4;
+            product *= symbols[i / 4 + i % 4];
+        }
+        final Puzzle.Builder builder = new Puzzle.Builder(16).addCage(product, PRODUCT, block);
+        for (int row = 0; row < 16; row++) {
+            for (int col = 0; col < 16; col++) {
+                if (row >= 4 || col >= 4) {
+                    builder.addCage(symbols[(row + col) % 16], SUM, row, col);
+                }
+            }
+        }
+        final Puzzle puzzle = builder.build();
+        assertEquals(null, CageTable.forCage(puzzle.getCage(0), 16));
+        final Solver solver = new Solver(puzzle);
+        assertTrue("filterCages", solver.filterCages());
+        long divisors = 0;
+        for (int value : new int[]{1, 2, 3, 4, 5, 6, 8, 9, 10, 12, 15, 16}) {
+            divisors |= Solution.bit(value);
+        }
+        assertEquals(divisors, solver.getSolution().candidateMask(2, 1));
+    }
+
+    @Test
+    public void testLongTarget() {
+        // a row of 13 distinct values multiplies to more than 13!, past Integer.MAX_VALUE
+        final int[] values = PuzzleGenerator.latinSquare(16, new Random(16));
+        final int[] row = new int[26];
+        long product = 1;
+        for (int col = 0; col < 13; col++) {
+            row[2 * col + 1] = col;
+            product *= values[col];
+        }
+        assertTrue(product > Integer.MAX_VALUE);
+        final Puzzle.Builder builder = new Puzzle.Builder(16).addCage(product, PRODUCT, row);
+        for (int cell = 13; cell < values.length; cell++) {
+            builder.addCage(values[cell], SUM, cell / 16, cell % 16);
+        }
+        final Solver solver = new Solver(builder.build());
+        assertTrue(solver.solve());
+        assertEquals(new Solution(16, values), solver.getSolution());
+    }
+
+    @Test
+    public void testCountSolutions() {
+        assertEquals(1, new Solver(EXAMPLE6).countSolutions(2));
+        assertEquals(2, new Solver(AMBIGUOUS).countSolutions(2));
+        assertEquals(12, new Solver(AMBIGUOUS).countSolutions(100)); // every 3x3 Latin square
+    }
+
+    @Test
+    public void testSolutions() {
+        final Set<Solution> squares = new HashSet<Solution>();
+        final Iterator<Solution> solutions = new Solver(AMBIGUOUS).solutions();
+        while (solutions.hasNext()) {
+            final Solution square = solutions.next();
+            assertTrue(square.isComplete());
+            assertTrue(squares.add(square));
+        }
+        assertEquals(12, squares.size());
+        try {
+            solutions.next();
+            fail("exhausted");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+
+        final Solver solver = new Solver(EXAMPLE6);
+        final Iterator<Solution> unique = solver.solutions();
+        assertTrue(unique.hasNext());
+        assertTrue(unique.hasNext()); // does not skip a solution
+        final Solution first = unique.next();
+        assertFalse(unique.hasNext());
+        assertTrue(solver.solve());
+        assertEquals(solver.getSolution(), first);
+        assertEquals(first, new Solver(EXAMPLE6).streamSolutions().findFirst().get());
+        assertEquals(2, new Solver(AMBIGUOUS).streamSolutions().limit(2).count());
+    }
+
+    @Test
+    public void testLuby() {
+        final long[] expected = {1, 1, 2, 1, 1, 2, 4, 1, 1, 2, 1, 1, 2, 4, 8, 1};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], Solver.luby(i + 1));
+        }
+    }
+
+    @Test
+    public void testRestarts() {
+        // a candidate with many solutions that still takes several restarts to find one
+        final Puzzle puzzle = new PuzzleGenerator(9, 0, 1, 1, 1).candidate(new Random(51));
+        final Solver solver = new Solver(puzzle);
+        assertTrue(solver.solve());
+        assertTrue(solver.getStats().toString(), solver.getStats().getRestarts() > 0);
+        assertTrue(solver.getStats().toString(), solver.getStats().getNogoods() > 0);
+        assertSolves(puzzle, solver.getSolution());
+
+        assertEquals(3, solver.countSolutions(3)); // not just the grid the solve left
+        assertEquals(0, solver.getStats().getRestarts()); // enumeration does not restart
+        assertSolves(puzzle, solver.getSolution());
+    }
+
+    @Test
+    public void testSolveAgain() {
+        final Solver solver = new Solver(AMBIGUOUS);
+        assertTrue(solver.solve());
+        assertEquals(12, solver.countSolutions(100)); // not just the grid solve left
+        assertTrue(solver.solutions().hasNext());
+        assertEquals(12, solver.streamSolutions().count());
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertTrue(solver.solveParallel(pool, 2));
+            assertEquals(12, solver.countSolutions(100));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        final SolveResult solved = new Solver(EXAMPLE6).solve(SolveBudget.UNLIMITED);
+        assertEquals(SolveResult.Status.SOLVED, solved.getStatus());
+        assertEquals(EXAMPLE6_SOLUTION, solved.getSolution());
+        assertEquals(SolveResult.Status.CONTRADICTION, new Solver(UNSOLVABLE).solve(SolveBudget.UNLIMITED).getStatus());
+
+        final Puzzle puzzle = new PuzzleGenerator(9, 0, 1, 1, 1).candidate(new Random(51));
+        final Solver solver = new Solver(puzzle);
+        final SolveResult stopped = solver.solve(new SolveBudget.Builder().maxNodes(50).build());
+        assertEquals(SolveResult.Status.BUDGET_EXCEEDED, stopped.getStatus());
+        assertEquals(50, stopped.getStats().getBranches());
+        assertFalse(stopped.getSolution().isComplete());
+
+        // the budget lasts one solve, and what it returned holds every solution
+        assertTrue(solver.solve());
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                final int value = solver.getSolution().valueOrZero(row, col);
+                assertTrue((stopped.getSolution().candidateMask(row, col) & Solution.bit(value)) != 0);
+            }
+        }
+
+        final SolveResult revised = solver.solve(new SolveBudget.Builder().maxPropagations(10).build());
+        assertEquals(SolveResult.Status.BUDGET_EXCEEDED, revised.getStatus());
+        assertEquals(10, revised.getStats().getPropagations());
+        assertEquals(0, revised.getStats().getBranches());
+
+        final SolveResult late = new Solver(puzzle).solve(new SolveBudget.Builder().timeout(0, TimeUnit.SECONDS).build());
+        assertEquals(SolveResult.Status.BUDGET_EXCEEDED, late.getStatus());
+
+        final Solver counter = new Solver(AMBIGUOUS);
+        assertEquals(0, counter.countSolutions(2, new SolveBudget.Builder().maxNodes(0).build()));
+        assertTrue(counter.isStopped());
+        assertEquals(2, counter.countSolutions(2));
+        assertFalse(counter.isStopped());
+    }
+
+    @Test
+    public void testDeadlineAfterPropagation() {
+        final Solver solver = new Solver(EXAMPLE6);
+        assertTrue(solver.propagate()); // the rules alone solve it
+        solver.setDeadline(System.nanoTime());
+        assertTrue(solver.nextSolution());
+        assertFalse(solver.isStopped());
+        assertEquals(EXAMPLE6_SOLUTION, solver.getSolution());
+    }
+
+    /**
+     * Fails unless solution is a Latin square that reaches every cage target
+     */
+    static void assertSolves(Puzzle puzzle, Solution solution) {
+        final int size = puzzle.getSize();
+        for (int i = 0; i < size; i++) {
+            long row = 0;
+            long col = 0;
+            for (int j = 0; j < size; j++) {
+                row |= Solution.bit(solution.valueOrZero(i, j));
+                col |= Solution.bit(solution.valueOrZero(j, i));
+            }
+            assertEquals(Solution.fullMask(size), row);
+            assertEquals(Solution.fullMask(size), col);
+        }
+        for (Puzzle.Cage cage : puzzle.getCages()) {
+            final int[] values = new int[cage.rowsCols.length / 2];
+            long sum = 0;
+            long product = 1;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = solution.valueOrZero(cage.rowsCols[2 * i], cage.rowsCols[2 * i + 1]);
+                sum += values[i];
+                product *= values[i];
+            }
+            if (cage.operator == SUM) {
+                assertEquals(cage.toString(), cage.target, sum);
+            } else if (cage.operator == PRODUCT) {
+                assertEquals(cage.toString(), cage.target, product);
+            } else {
+                assertTrue(cage.toString(), cage.operator.reaches(values[0], values[1], cage.target));
+            }
+        }
+    }
+
+    @Test
+    public void testLineRules() {
+        // rows that any permutation satisfies, so nothing links the columns but the line rules
+        final Solver solver = new Solver(new Puzzle.Builder(4)
+                .addCage(10, SUM, 0,0, 0,1, 0,2, 0,3)
+                .addCage(10, SUM, 1,0, 1,1, 1,2, 1,3)
+                .addCage(10, SUM, 2,0, 2,1, 2,2, 2,3)
+                .addCage(10, SUM, 3,0, 3,1, 3,2, 3,3)
+                .build());
+        final Solution solution = solver.getSolution();
+        final long pair = Solution.bit(1) | Solution.bit(2);
+        solution.restrict(0, 0, pair);
+        solution.restrict(1, 0, pair);
+        solution.markImpossible(0, 3, 4);
+        solution.markImpossible(1, 3, 4);
+        solution.markImpossible(2, 3, 4);
+        assertTrue(solver.propagate());
+        assertEquals(4, solution.valueOrZero(3, 3)); // hidden single in column 3
+        assertEquals(0, solution.candidateMask(2, 0) & pair); // naked pair in column 0
+        assertEquals(3, solution.valueOrZero(3, 0));
+        assertEquals(4, solution.valueOrZero(2, 0));
+        assertTrue(solver.getStats().getEliminations(SolveStats.Rule.LINES) > 0);
+    }
+
+    @Test
+    public void testStats() {
+        final Solver trivial = new Solver(TRIVIAL_PUZZLE_BUILDER.build());
+        assertTrue(trivial.solve());
+        assertEquals(1, trivial.getStats().getPasses(SolveStats.Rule.IDENTITY));
+        assertEquals(0, trivial.getStats().getBranches());
+
+        final Solver ambiguous = new Solver(AMBIGUOUS);
+        assertTrue(ambiguous.solve());
+        final SolveStats stats = ambiguous.getStats();
+        assertTrue(stats.toString(), stats.getBranches() > 0);
+        assertTrue(stats.toString(), stats.getMaxDepth() > 0);
+        assertTrue(stats.toString(), stats.getEliminations(SolveStats.Rule.UNIQUENESS) > 0);
+        assertTrue(stats.toString(), stats.getPasses(SolveStats.Rule.ASSIGNMENTS) > 0);
+        assertTrue(stats.toString(), stats.getDifficulty() >= SolveStats.BRANCH_WEIGHT / 3.0);
+    }
+
+    @Test
+    public void testDifficultyDeterministic() {
+        final Solver first = new Solver(EXAMPLE6);
+        final Solver second = new Solver(EXAMPLE6);
+        assertTrue(first.solve());
+        assertTrue(second.solve());
+        assertEquals(first.getStats().getDifficulty(), second.getStats().getDifficulty(), 0);
+        assertTrue(first.getStats().getDifficulty() >= 1);
+        for (SolveStats.Rule rule : SolveStats.Rule.values()) {
+            assertEquals(rule.toString(),
+                    first.getStats().getEliminations(rule), second.getStats().getEliminations(rule));
+        }
+        // every candidate but the value of each cell was removed by some rule or by the search
+        long eliminations = 0;
+        for (SolveStats.Rule rule : SolveStats.Rule.values()) {
+            eliminations += first.getStats().getEliminations(rule);
+        }
+        assertTrue(eliminations <= 36 * 5);
+    }
+
+    @Test
+    public void testSolveParallel() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final Solver solver = new Solver(EXAMPLE6);
+            assertTrue(solver.solveParallel(pool, 3));
+            assertFalse(solver.isStopped());
+            assertEquals(EXAMPLE6_SOLUTION, solver.getSolution());
+
+            final Solver late = new Solver(EXAMPLE6);
+            late.setDeadline(System.nanoTime());
+            assertFalse(late.solveParallel(pool, 3));
+            assertTrue(late.isStopped());
+
+            assertEquals(1, new Solver(EXAMPLE6).countSolutionsParallel(pool, 3, 2));
+            final Solver ambiguous = new Solver(AMBIGUOUS);
+            assertEquals(2, ambiguous.countSolutionsParallel(pool, 2, 2));
+            assertFalse(ambiguous.isStopped()); // cancelled at the limit, not stopped
+            assertEquals(12, new Solver(AMBIGUOUS).countSolutionsParallel(pool, 2, 100));
+        } finally {
+            pool.shutdown();
+        }
     }
 }